@@ -0,0 +1,182 @@
+package com.service;
+
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+import com.repository.PlayerBalances;
+import com.repository.RedisKeys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.RedisOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Confronto tra il wallet Lua ({@link LocalRedisWalletService}) e il wallet con write-ahead log
+ * ({@link WalWalletService}) sulle operazioni del percorso di gioco: prenotazione singola da più thread,
+ * prenotazione e accredito a batch come li inviano pipeline e settlement.
+ * I servizi sono costruiti a mano, fuori da CDI, sul solo client Redis di Vert.x, verso un Redis di prova
+ * (-Dbench.redis.url, default redis://localhost:6379). Il journal va su uno stream proprio, che il
+ * riconciliatore non legge; giocatori bench-*, ledger, indice dei saldi a zero e marker del wallet WAL
+ * vengono rimossi a fine prova. Il lock del wallet WAL resta comunque occupato durante la prova, per cui
+ * il benchmark non va mai puntato su un Redis di produzione.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class WalletEngineBenchmark {
+
+    private static final long INITIAL_BALANCE_CENTS = 1_000_000_000L;
+    private static final long STAKE_CENTS = 100;
+    // KEYS[1] = marker, ARGV[1] = identità del log del benchmark
+    private static final String DELETE_IF_OWNED_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """;
+
+    @Param({"redis", "wal"})
+    public String engine;
+
+    @Param({"1000"})
+    public int players;
+
+    @Param({"64"})
+    public int batchSize;
+
+    private Vertx vertx;
+    private Redis client;
+    private ReactiveWalletService wallet;
+    private WalWalletService wal;
+    private Path walDir;
+    private String journalKey;
+    private String roundId;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        vertx = Vertx.vertx();
+        client = Redis.createClient(vertx, new RedisOptions()
+                .setConnectionString(System.getProperty("bench.redis.url", "redis://localhost:6379"))
+                .setMaxPoolSize(32)
+                .setMaxPoolWaiting(4096));
+        PlayerBalances playerBalances = new PlayerBalances(client);
+        roundId = "bench-" + UUID.randomUUID();
+        journalKey = "bench:" + RedisKeys.WALLET_JOURNAL + ":" + roundId;
+        WalletJournal journal = new WalletJournal(client, journalKey, 100_000);
+
+        List<Request> seed = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            seed.add(Request.cmd(Command.HSET).arg(RedisKeys.player(player(i)))
+                    .arg("balanceCents").arg(INITIAL_BALANCE_CENTS));
+        }
+        client.batchAndAwait(seed);
+
+        if ("wal".equals(engine)) {
+            walDir = Files.createTempDirectory("wallet-bench");
+            wal = new WalWalletService(client, playerBalances, journal, new SimpleMeterRegistry(),
+                    walDir.resolve("wallet.wal").toString(), 64L * 1024 * 1024, false);
+            wal.init();
+            wallet = wal;
+        } else {
+            wallet = new LocalRedisWalletService(client, playerBalances, journal, false);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (wal != null) {
+            // Prima la chiusura, che attende la replica: dopo non arrivano più scritture sulle chiavi bench
+            wal.close();
+            String logId = Files.readString(walDir.resolve("wallet.wal.id")).trim();
+            client.sendAndAwait(Request.cmd(Command.EVAL).arg(DELETE_IF_OWNED_SCRIPT).arg(1).arg(WalWalletService.WRITER_KEY)
+                    .arg(logId));
+            try (Stream<Path> files = Files.walk(walDir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        List<Request> cleanup = new ArrayList<>(players * 2 + 1);
+        for (int i = 0; i < players; i++) {
+            String playerId = player(i);
+            cleanup.add(Request.cmd(Command.DEL).arg(RedisKeys.player(playerId))
+                    .arg(RedisKeys.walletLedger(playerId, roundId)));
+            cleanup.add(Request.cmd(Command.ZREM).arg(RedisKeys.zeroBalanceFor(playerId)).arg(playerId));
+        }
+        cleanup.add(Request.cmd(Command.DEL).arg(journalKey));
+        client.batchAndAwait(cleanup);
+        client.close();
+        vertx.closeAndAwait();
+    }
+
+    /**
+     * Una prenotazione per chiamata, da più thread: il caso delle scommesse isolate.
+     */
+    @Benchmark
+    @Threads(8)
+    public WalletResult reserveSingle() {
+        long n = sequence.incrementAndGet();
+        return wallet.reserveFunds(player(n), STAKE_CENTS, roundId, "bench:bet:" + n).await().indefinitely();
+    }
+
+    /**
+     * Un batch di prenotazioni, come quelli raccolti da {@link BetReservationPipeline}.
+     */
+    @Benchmark
+    public List<WalletResult> reserveBatch() {
+        List<WalletReservation> reservations = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            long n = sequence.incrementAndGet();
+            reservations.add(new WalletReservation(player(n), STAKE_CENTS, roundId, "bench:bet:" + n));
+        }
+        return wallet.reserveFunds(reservations).await().indefinitely();
+    }
+
+    /**
+     * Un batch di accrediti, come il settlement dei cashout di un tick.
+     */
+    @Benchmark
+    public List<WalletResult> creditBatch() {
+        List<WalletCredit> credits = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            long n = sequence.incrementAndGet();
+            credits.add(new WalletCredit(player(n), STAKE_CENTS * 2, roundId, "bench:win:" + n));
+        }
+        return wallet.creditWinnings(credits).await().indefinitely();
+    }
+
+    private String player(long n) {
+        return "bench-" + Math.floorMod(n, players);
+    }
+}
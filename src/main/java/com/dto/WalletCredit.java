@@ -0,0 +1,4 @@
+package com.dto;
+
+public record WalletCredit(String userId, long amountCents, String roundId, String transactionId) {
+}
@@ -0,0 +1,12 @@
+package com.dto;
+
+/**
+ * Esito di un'operazione sul wallet. alreadyProcessed indica che la transazione era già stata
+ * applicata (hit di idempotenza): l'esito è positivo ma questa chiamata non ha mosso fondi.
+ */
+public record WalletResult(String transactionId, boolean success, long newBalanceCents, boolean alreadyProcessed) {
+
+    public WalletResult(String transactionId, boolean success, long newBalanceCents) {
+        this(transactionId, success, newBalanceCents, false);
+    }
+}
@@ -1,27 +1,32 @@
 package com.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.concurrent.atomic.AtomicReference;
+
 public class Bet {
     private String userId;
     private String username;
     private String gameId;
-    private double amount;
+    private long amountCents;
     private double autoCashout;
     private double cashOutMultiplier;
     private int index;
-    private double profit;
+    private long profitCents;
     private String avatarUrl;
+    private final AtomicReference<BetState> state = new AtomicReference<>(BetState.OPEN);
 
     public Bet() {
     }
 
-    public Bet(String userId, String username, String gameId, double amount, int index, String avatarUrl) {
+    public Bet(String userId, String username, String gameId, long amountCents, int index, String avatarUrl) {
         this.userId = userId;
         this.username = username;
         this.gameId = gameId;
-        this.amount = amount;
+        this.amountCents = amountCents;
         this.index = index;
         this.cashOutMultiplier = 0.0;
-        this.profit = 0.0;
+        this.profitCents = 0;
         this.avatarUrl = avatarUrl;
     }
 
@@ -57,12 +62,12 @@ public class Bet {
         this.gameId = gameId;
     }
 
-    public double getAmount() {
-        return amount;
+    public long getAmountCents() {
+        return amountCents;
     }
 
-    public void setAmount(double amount) {
-        this.amount = amount;
+    public void setAmountCents(long amountCents) {
+        this.amountCents = amountCents;
     }
 
     public double getAutoCashout() {
@@ -81,12 +86,29 @@ public class Bet {
         this.cashOutMultiplier = cashOutMultiplier;
     }
 
-    public double getProfit() {
-        return profit;
+    public long getProfitCents() {
+        return profitCents;
+    }
+
+    public void setProfitCents(long profitCents) {
+        this.profitCents = profitCents;
+    }
+
+    public BetState getState() {
+        return state.get();
+    }
+
+    public void setState(BetState state) {
+        this.state.set(state);
     }
 
-    public void setProfit(double profit) {
-        this.profit = profit;
+    /**
+     * Passaggio di stato atomico: solo il primo chiamante che trova la scommessa nello stato atteso vince
+     * (es. cashout manuale e auto-cashout concorrenti, o cashout contro crash).
+     */
+    @JsonIgnore
+    public boolean transition(BetState expected, BetState next) {
+        return state.compareAndSet(expected, next);
     }
 
     public int getIndex() {
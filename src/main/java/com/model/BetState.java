@@ -0,0 +1,7 @@
+package com.model;
+
+public enum BetState {
+    OPEN,
+    CASHED,
+    LOST
+}
@@ -3,17 +3,17 @@ package com.model;
 public class Game {
     private String id;
     private GameState status;
-    private double multiplier;
-    private double crashPoint;
+    private int multiplierHundredths;
+    private int crashPointHundredths;
     private long startTime;
 
     public Game() {
     }
 
-    public Game(String id, double crashPoint) {
+    public Game(String id, int crashPointHundredths) {
         this.id = id;
-        this.crashPoint = crashPoint;
-        this.multiplier = 1.00;
+        this.crashPointHundredths = crashPointHundredths;
+        this.multiplierHundredths = 100;
         this.status = GameState.WAITING;
         this.startTime = System.currentTimeMillis();
     }
@@ -35,19 +35,27 @@ public class Game {
     }
 
     public double getMultiplier() {
-        return multiplier;
+        return multiplierHundredths / 100.0;
     }
 
-    public void setMultiplier(double multiplier) {
-        this.multiplier = multiplier;
+    public int getMultiplierHundredths() {
+        return multiplierHundredths;
+    }
+
+    public void setMultiplierHundredths(int multiplierHundredths) {
+        this.multiplierHundredths = multiplierHundredths;
     }
 
     public double getCrashPoint() {
-        return crashPoint;
+        return crashPointHundredths / 100.0;
+    }
+
+    public int getCrashPointHundredths() {
+        return crashPointHundredths;
     }
 
-    public void setCrashPoint(double crashPoint) {
-        this.crashPoint = crashPoint;
+    public void setCrashPointHundredths(int crashPointHundredths) {
+        this.crashPointHundredths = crashPointHundredths;
     }
 
     public long getStartTime() {
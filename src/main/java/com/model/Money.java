@@ -0,0 +1,35 @@
+package com.model;
+
+/**
+ * Importi in centesimi interi. Saldi, puntate e vincite viaggiano come long;
+ * la conversione a decimale avviene solo ai confini (input del client, JSON, frame WebSocket).
+ */
+public final class Money {
+
+    private Money() {
+    }
+
+    public static long toCents(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    public static double toDouble(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Formato decimale a due cifre ("12.30") senza passare da double.
+     */
+    public static String format(long cents) {
+        long abs = Math.abs(cents);
+        long fraction = abs % 100;
+        return (cents < 0 ? "-" : "") + (abs / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    /**
+     * Vincita per una puntata al moltiplicatore dato in centesimi, arrotondata al centesimo.
+     */
+    public static long multiply(long cents, int multiplierHundredths) {
+        return (cents * multiplierHundredths + 50) / 100;
+    }
+}
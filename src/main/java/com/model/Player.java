@@ -10,19 +10,19 @@ public class Player {
     @JsonIgnore
     private String passwordHash;
 
-    private double balance;
+    private long balanceCents;
     private String resetToken;
     private String avatarUrl;
 
     public Player() {
     }
 
-    public Player(String id, String username, String email, String passwordHash, double balance) {
+    public Player(String id, String username, String email, String passwordHash, long balanceCents) {
         this.id = id;
         this.username = username;
         this.email = email;
         this.passwordHash = passwordHash;
-        this.balance = balance;
+        this.balanceCents = balanceCents;
     }
 
     public String getId() {
@@ -57,12 +57,16 @@ public class Player {
         this.passwordHash = passwordHash;
     }
 
-    public double getBalance() {
-        return balance;
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    public void setBalanceCents(long balanceCents) {
+        this.balanceCents = balanceCents;
     }
 
-    public void setBalance(double balance) {
-        this.balance = balance;
+    public double getBalance() {
+        return Money.toDouble(balanceCents);
     }
 
     public String getResetToken() {
@@ -0,0 +1,7 @@
+package com.model;
+
+/**
+ * Dati anagrafici di un giocatore, senza saldo né credenziali. Immutabile, quindi condivisibile dalla cache.
+ */
+public record PlayerProfile(String id, String username, String email, String avatarUrl) {
+}
@@ -0,0 +1,56 @@
+package com.repository;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.mutiny.redis.client.Response;
+import io.vertx.redis.client.Command;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Saldo e indice dei saldi a zero per i wallet, sul client Redis reattivo: nessuna chiamata bloccante,
+ * per cui va bene anche sull'event loop. Dipende solo dal client, così i wallet si possono costruire
+ * anche fuori da CDI (benchmark).
+ */
+@ApplicationScoped
+public class PlayerBalances {
+
+    private final Redis redis;
+
+    @Inject
+    public PlayerBalances(ReactiveRedisDataSource ds) {
+        this(ds.getRedis());
+    }
+
+    public PlayerBalances(Redis redis) {
+        this.redis = redis;
+    }
+
+    /**
+     * Legge solo il saldo in centesimi, senza trasferire il resto dell'hash.
+     *
+     * @return il saldo, o null se il giocatore non esiste
+     */
+    public Uni<Long> findBalanceCents(String playerId) {
+        return redis.send(Request.cmd(Command.HMGET).arg(RedisKeys.player(playerId)).arg("balanceCents").arg("balance"))
+                .map(fields -> PlayerRepository.toBalanceCents(field(fields, 0), field(fields, 1)));
+    }
+
+    public Uni<Void> markZeroBalance(String playerId) {
+        String key = RedisKeys.zeroBalanceFor(playerId);
+        return redis.send(Request.cmd(Command.ZADD).arg(key).arg("NX").arg(System.currentTimeMillis()).arg(playerId))
+                .replaceWithVoid();
+    }
+
+    public Uni<Void> clearZeroBalance(String playerId) {
+        return redis.send(Request.cmd(Command.ZREM).arg(RedisKeys.zeroBalanceFor(playerId)).arg(playerId))
+                .replaceWithVoid();
+    }
+
+    private static String field(Response fields, int index) {
+        Response value = fields != null && fields.size() > index ? fields.get(index) : null;
+        return value != null ? value.toString() : null;
+    }
+}
@@ -1,69 +1,162 @@
 package com.repository;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.model.Money;
 import com.model.Player;
+import com.model.PlayerProfile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
 import io.quarkus.redis.datasource.RedisDataSource;
 import io.quarkus.redis.datasource.hash.HashCommands;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
 import io.quarkus.redis.datasource.keys.KeyCommands;
+import io.quarkus.redis.datasource.pubsub.PubSubCommands;
 import io.quarkus.redis.datasource.value.ValueCommands;
 import io.quarkus.redis.datasource.value.SetArgs;
 import io.quarkus.redis.datasource.sortedset.ZAddArgs;
 import io.quarkus.redis.datasource.sortedset.ScoreRange;
 import io.quarkus.redis.datasource.sortedset.ScoredValue;
 import io.quarkus.redis.datasource.sortedset.SortedSetCommands;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 import org.jboss.logging.Logger;
 
 @ApplicationScoped
 public class PlayerRepository {
 
     private static final Logger LOG = Logger.getLogger(PlayerRepository.class);
+    private static final String INVALIDATION_CHANNEL = "player:invalidate";
+    private static final String[] PROFILE_FIELDS = { "id", "username", "email", "avatarUrl" };
 
     private final HashCommands<String, String, String> hashCommands;
     private final ValueCommands<String, String> valueCommands;
     private final KeyCommands<String> keyCommands;
     private final SortedSetCommands<String, String> sortedSetCommands;
+    private final PubSubCommands<String> pubSubCommands;
+    private final ReactiveHashCommands<String, String, String> reactiveHashCommands;
 
-    public PlayerRepository(RedisDataSource ds) {
+    // Near-cache dei profili: invalidata su ogni save() di qualunque nodo tramite player:invalidate,
+    // la scadenza limita comunque la staleness se un messaggio di invalidazione va perso.
+    // Asincrona perché un'invalidazione arrivata durante un caricamento scarti anche il valore in arrivo;
+    // i caricamenti girano sul thread del chiamante (o sull'event loop del client reattivo)
+    private final AsyncCache<String, PlayerProfile> profiles = Caffeine.newBuilder()
+            .maximumSize(50_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .executor(Runnable::run)
+            .recordStats()
+            .buildAsync();
+    private final Timer invalidationLag;
+    private PubSubCommands.RedisSubscriber invalidationSubscriber;
+
+    public PlayerRepository(RedisDataSource ds, ReactiveRedisDataSource reactiveDs, MeterRegistry meterRegistry) {
         this.hashCommands = ds.hash(String.class);
         this.valueCommands = ds.value(String.class);
         this.keyCommands = ds.key();
         this.sortedSetCommands = ds.sortedSet(String.class);
+        this.pubSubCommands = ds.pubsub(String.class);
+        this.reactiveHashCommands = reactiveDs.hash(String.class);
+        this.invalidationLag = meterRegistry.timer("player.profile.invalidation.lag");
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles.synchronous(), "player.profile");
+    }
+
+    @PostConstruct
+    void init() {
+        invalidationSubscriber = pubSubCommands.subscribe(INVALIDATION_CHANNEL, this::onInvalidation);
+    }
+
+    @PreDestroy
+    void close() {
+        if (invalidationSubscriber != null) {
+            invalidationSubscriber.unsubscribe();
+        }
+    }
+
+    // Formato del messaggio: "playerId:timestamp di pubblicazione (ms)"
+    private void onInvalidation(String message) {
+        int sep = message.lastIndexOf(':');
+        if (sep <= 0) {
+            return;
+        }
+        profiles.synchronous().invalidate(message.substring(0, sep));
+        try {
+            long publishedAt = Long.parseLong(message.substring(sep + 1));
+            invalidationLag.record(Math.max(System.currentTimeMillis() - publishedAt, 0), TimeUnit.MILLISECONDS);
+        } catch (NumberFormatException e) {
+            LOG.debug("Invalidazione profilo senza timestamp: " + message);
+        }
+    }
+
+    private void invalidateProfile(String playerId) {
+        profiles.synchronous().invalidate(playerId);
+        try {
+            pubSubCommands.publish(INVALIDATION_CHANNEL, playerId + ":" + System.currentTimeMillis());
+        } catch (Exception e) {
+            LOG.error("Pubblicazione invalidazione profilo fallita per " + playerId, e);
+        }
     }
 
     @SuppressWarnings("unchecked")
     public void markZeroBalance(String playerId) {
-        sortedSetCommands.zadd("player:zero_balance", new ZAddArgs().nx(),
+        sortedSetCommands.zadd(RedisKeys.zeroBalanceFor(playerId), new ZAddArgs().nx(),
                 ScoredValue.of(playerId, (double) System.currentTimeMillis()));
     }
 
     public void clearZeroBalance(String playerId) {
-        sortedSetCommands.zrem("player:zero_balance", playerId);
+        sortedSetCommands.zrem(RedisKeys.zeroBalanceFor(playerId), playerId);
     }
 
     public List<String> findEligibleForRefill(long cutoffTime) {
-        return sortedSetCommands.zrangebyscore("player:zero_balance",
-                ScoreRange.from(0.0, cutoffTime));
+        List<String> eligible = new ArrayList<>();
+        for (int shard = 0; shard < RedisKeys.ZERO_BALANCE_SHARDS; shard++) {
+            eligible.addAll(sortedSetCommands.zrangebyscore(RedisKeys.zeroBalance(shard),
+                    ScoreRange.from(0.0, cutoffTime)));
+        }
+        return eligible;
     }
 
     public void save(Player player) {
-        String key = "player:" + player.getId();
+        write(player, true);
+    }
+
+    /**
+     * Aggiorna i dati del profilo lasciando invariato il saldo, che resta di competenza del wallet.
+     */
+    public void saveProfile(Player player) {
+        write(player, false);
+    }
+
+    private void write(Player player, boolean withBalance) {
+        String key = RedisKeys.player(player.getId());
         Map<String, String> data = new HashMap<>();
         data.put("id", player.getId());
         data.put("username", player.getUsername());
         data.put("email", player.getEmail());
         data.put("password", player.getPasswordHash());
-        data.put("balance", String.valueOf(player.getBalance()));
+        if (withBalance) {
+            data.put("balanceCents", Long.toString(player.getBalanceCents()));
+        }
         if (player.getAvatarUrl() != null) {
             data.put("avatarUrl", player.getAvatarUrl());
         }
 
         hashCommands.hset(key, data);
+        if (withBalance) {
+            hashCommands.hdel(key, "balance");
+        }
         valueCommands.set("player:email:" + player.getEmail(), player.getId());
         valueCommands.set("player:username:" + player.getUsername(), player.getId());
+        invalidateProfile(player.getId());
     }
 
     public void removeLookups(String email, String username) {
@@ -74,7 +167,7 @@ public class PlayerRepository {
     }
 
     public Player findById(String id) {
-        Map<String, String> data = hashCommands.hgetall("player:" + id);
+        Map<String, String> data = hashCommands.hgetall(RedisKeys.player(id));
         if (data.isEmpty())
             return null;
 
@@ -83,7 +176,7 @@ public class PlayerRepository {
                 data.get("username"),
                 data.get("email"),
                 data.get("password"),
-                parseDoubleSafe(data.get("balance")));
+                balanceCents(data.get("balanceCents"), data.get("balance")));
 
         if (data.containsKey("avatarUrl")) {
             player.setAvatarUrl(data.get("avatarUrl"));
@@ -91,6 +184,65 @@ public class PlayerRepository {
         return player;
     }
 
+    /**
+     * Profilo del giocatore dalla near-cache, caricato da Redis al primo accesso.
+     * Da usare nei percorsi caldi che non richiedono saldo né password.
+     */
+    public PlayerProfile findProfile(String id) {
+        return profiles.synchronous().get(id, this::loadProfile);
+    }
+
+    /**
+     * Variante non bloccante di {@link #findProfile}, per i percorsi che girano sull'event loop.
+     * Condivide la near-cache: solo il caricamento passa dal client reattivo.
+     */
+    public Uni<PlayerProfile> findProfileAsync(String id) {
+        return Uni.createFrom().completionStage(() -> profiles.get(id, (key, executor) -> reactiveHashCommands
+                .hmget(RedisKeys.player(key), PROFILE_FIELDS)
+                .map(PlayerRepository::toProfile)
+                .subscribeAsCompletionStage()));
+    }
+
+    private PlayerProfile loadProfile(String id) {
+        return toProfile(hashCommands.hmget(RedisKeys.player(id), PROFILE_FIELDS));
+    }
+
+    private static PlayerProfile toProfile(Map<String, String> data) {
+        if (data.get("id") == null)
+            return null;
+        return new PlayerProfile(data.get("id"), data.get("username"), data.get("email"), data.get("avatarUrl"));
+    }
+
+    /**
+     * Legge solo il saldo in centesimi, senza trasferire il resto dell'hash.
+     *
+     * @return il saldo, o null se il giocatore non esiste
+     */
+    public Long findBalanceCents(String id) {
+        Map<String, String> data = hashCommands.hmget(RedisKeys.player(id), "balanceCents", "balance");
+        return toBalanceCents(data.get("balanceCents"), data.get("balance"));
+    }
+
+    static Long toBalanceCents(String cents, String legacyBalance) {
+        if (cents == null && legacyBalance == null)
+            return null;
+        return balanceCents(cents, legacyBalance);
+    }
+
+    /**
+     * Saldo in centesimi; gli hash non ancora migrati dagli script del wallet hanno solo il vecchio campo decimale.
+     */
+    private static long balanceCents(String cents, String legacyBalance) {
+        if (cents != null) {
+            try {
+                return Long.parseLong(cents);
+            } catch (NumberFormatException e) {
+                return 0L;
+            }
+        }
+        return Money.toCents(parseDoubleSafe(legacyBalance));
+    }
+
     public Player findByEmail(String email) {
         String idStr = valueCommands.get("player:email:" + email);
         if (idStr == null)
@@ -113,7 +265,7 @@ public class PlayerRepository {
 
     public void saveRefreshToken(String token, String playerId) {
         valueCommands.set("refresh_token:" + token, playerId, new SetArgs().ex(7200)); // 2 hours
-        sortedSetCommands.zadd("player:" + playerId + ":tokens", System.currentTimeMillis() + 7200000, token);
+        sortedSetCommands.zadd(RedisKeys.playerTokens(playerId), System.currentTimeMillis() + 7200000, token);
     }
 
     public String validateRefreshToken(String token) {
@@ -127,16 +279,16 @@ public class PlayerRepository {
         String playerId = valueCommands.get("refresh_token:" + token);
         keyCommands.del("refresh_token:" + token);
         if (playerId != null) {
-            sortedSetCommands.zrem("player:" + playerId + ":tokens", token);
+            sortedSetCommands.zrem(RedisKeys.playerTokens(playerId), token);
         }
     }
 
     public void deleteAllTokensForUser(String userId) {
-        List<String> tokens = sortedSetCommands.zrange("player:" + userId + ":tokens", 0, -1);
+        List<String> tokens = sortedSetCommands.zrange(RedisKeys.playerTokens(userId), 0, -1);
         for (String token : tokens) {
             keyCommands.del("refresh_token:" + token);
         }
-        keyCommands.del("player:" + userId + ":tokens");
+        keyCommands.del(RedisKeys.playerTokens(userId));
     }
 
     public void saveResetToken(String token, String playerId) {
@@ -154,7 +306,7 @@ public class PlayerRepository {
         keyCommands.del("reset_token:" + token);
     }
 
-    private double parseDoubleSafe(String value) {
+    private static double parseDoubleSafe(String value) {
         if (value == null)
             return 0.0;
         try {
@@ -0,0 +1,67 @@
+package com.repository;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout delle chiavi di giocatori e wallet, compatibile con Redis Cluster.
+ * L'id del giocatore fa da hash tag ({id}) per tutte le sue chiavi: hash del giocatore, token e
+ * ledger di idempotenza delle sue transazioni stanno nello stesso slot e uno script Lua può
+ * toccarli insieme. L'indice dei saldi a zero è diviso in {@value #ZERO_BALANCE_SHARDS} sorted set
+ * con tag propri, distribuiti tra i nodi del cluster.
+ */
+public final class RedisKeys {
+
+    public static final int ZERO_BALANCE_SHARDS = 16;
+    public static final int SLOTS = 16384;
+    /** Ledger delle ricariche, che non appartengono a un round. */
+    public static final String REFILL_LEDGER = "refill";
+    /** Stream (cappato) delle mutazioni del wallet e delle chiusure dei round, vedi WalletJournal. */
+    public static final String WALLET_JOURNAL = "wallet:journal";
+
+    private RedisKeys() {
+    }
+
+    public static String player(String playerId) {
+        return "player:{" + playerId + "}";
+    }
+
+    public static String playerTokens(String playerId) {
+        return player(playerId) + ":tokens";
+    }
+
+    /**
+     * Transazioni del giocatore già processate nel round: un hash (transactionId → 1) con un'unica scadenza.
+     */
+    public static String walletLedger(String playerId, String roundId) {
+        return "wallet:ledger:{" + playerId + "}:" + roundId;
+    }
+
+    public static String zeroBalance(int shard) {
+        return "player:zero_balance:{zb" + shard + "}";
+    }
+
+    public static String zeroBalanceFor(String playerId) {
+        return zeroBalance(Math.floorMod(playerId.hashCode(), ZERO_BALANCE_SHARDS));
+    }
+
+    /**
+     * Slot del cluster di una chiave: CRC16 (XMODEM) dell'hash tag se presente, altrimenti dell'intera chiave.
+     */
+    public static int slot(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                key = key.substring(start + 1, end);
+            }
+        }
+        int crc = 0;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            crc ^= (b & 0xff) << 8;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return (crc & 0xffff) % SLOTS;
+    }
+}
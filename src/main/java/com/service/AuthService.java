@@ -2,6 +2,7 @@ package com.service;
 
 import at.favre.lib.crypto.bcrypt.BCrypt;
 import com.model.Player;
+import com.model.PlayerProfile;
 import com.repository.PlayerRepository;
 import com.web.model.AuthResponse;
 import com.web.model.LoginRequest;
@@ -30,6 +31,7 @@ public class AuthService {
 
     private static final String DUMMY_HASH = "$2a$12$R9h/cIPz0gi.URNNX3kh2OPST9/PgBkqquii.V37YoLW5I477x8p6";
     private static final Logger LOG = Logger.getLogger(AuthService.class);
+    private static final long INITIAL_BALANCE_CENTS = 500_00;
 
     @Inject
     public AuthService(PlayerRepository playerRepository,
@@ -60,7 +62,7 @@ public class AuthService {
                 req.username(),
                 req.email(),
                 hashedPassword,
-                500.0);
+                INITIAL_BALANCE_CENTS);
 
         playerRepository.save(player);
         String accessToken = tokenService.generateAccessToken(player.getEmail(), player.getUsername(), player.getId());
@@ -140,7 +142,7 @@ public class AuthService {
 
         String newHashed = BCrypt.withDefaults().hashToString(12, newPass.toCharArray());
         player.setPasswordHash(newHashed);
-        playerRepository.save(player);
+        playerRepository.saveProfile(player);
         playerRepository.deleteAllTokensForUser(userId);
         LOG.info("AUDIT: Password changed for user: " + userId);
     }
@@ -170,7 +172,7 @@ public class AuthService {
         playerRepository.removeLookups(player.getEmail(), null);
 
         player.setEmail(newEmail);
-        playerRepository.save(player);
+        playerRepository.saveProfile(player);
         LOG.info("AUDIT: Email updated for user: " + userId + " to " + newEmail);
     }
 
@@ -180,7 +182,7 @@ public class AuthService {
             throw new NotAuthorizedException("User not found");
         }
         player.setAvatarUrl(avatarUrl);
-        playerRepository.save(player);
+        playerRepository.saveProfile(player);
     }
 
     public void forgotPassword(ForgotPasswordRequest req) {
@@ -216,7 +218,7 @@ public class AuthService {
 
         String newHashed = BCrypt.withDefaults().hashToString(12, req.newPassword().toCharArray());
         player.setPasswordHash(newHashed);
-        playerRepository.save(player);
+        playerRepository.saveProfile(player);
 
         playerRepository.deleteResetToken(req.token());
         LOG.info("AUDIT: Password reset completed for user: " + playerId);
@@ -240,7 +242,11 @@ public class AuthService {
         }
     }
 
-    public Player findById(String id) {
-        return playerRepository.findById(id);
+    public PlayerProfile findProfile(String id) {
+        return playerRepository.findProfile(id);
+    }
+
+    public Long findBalanceCents(String id) {
+        return playerRepository.findBalanceCents(id);
     }
 }
@@ -0,0 +1,70 @@
+package com.service;
+
+import com.model.Bet;
+import com.model.BetState;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Indice degli auto-cashout di un round, costruito al decollo quando l'insieme delle scommesse
+ * non può più cambiare. Target (in centesimi) e slot delle scommesse stanno in array primitivi
+ * ordinati per target; ogni tick avanza solo un cursore, quindi il costo è proporzionale ai
+ * cashout effettivamente scattati e non alloca. Letto e avanzato solo dal thread del clock.
+ */
+final class AutoCashoutIndex {
+
+    static final AutoCashoutIndex EMPTY = new AutoCashoutIndex(new Bet[0], new int[0]);
+
+    private final Bet[] bets;
+    private final int[] targets;
+    private int cursor;
+
+    private AutoCashoutIndex(Bet[] bets, int[] targets) {
+        this.bets = bets;
+        this.targets = targets;
+    }
+
+    static AutoCashoutIndex freeze(Collection<Bet> roundBets) {
+        Bet[] slots = new Bet[roundBets.size()];
+        long[] keys = new long[roundBets.size()];
+        int n = 0;
+        for (Bet bet : roundBets) {
+            if (bet.getAutoCashout() > 1.0 && bet.getState() == BetState.OPEN) {
+                // target nei 32 bit alti, slot nei bassi: un solo sort primitivo ordina per target
+                keys[n] = ((long) MultiplierCurve.targetToHundredths(bet.getAutoCashout()) << 32) | n;
+                slots[n] = bet;
+                n++;
+            }
+        }
+        if (n == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(keys, 0, n);
+
+        Bet[] bets = new Bet[n];
+        int[] targets = new int[n];
+        for (int i = 0; i < n; i++) {
+            targets[i] = (int) (keys[i] >>> 32);
+            bets[i] = slots[(int) keys[i]];
+        }
+        return new AutoCashoutIndex(bets, targets);
+    }
+
+    /**
+     * Target distinti in ordine crescente.
+     */
+    int[] distinctTargets() {
+        return Arrays.stream(targets).distinct().toArray();
+    }
+
+    void drain(int currentMultiplier, BetRegistry.AutoCashoutConsumer consumer) {
+        while (cursor < targets.length && targets[cursor] <= currentMultiplier) {
+            Bet bet = bets[cursor];
+            if (bet.getState() == BetState.OPEN) {
+                consumer.accept(bet, targets[cursor]);
+            }
+            cursor++;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.service;
+
+import com.model.Bet;
+import com.model.BetState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scommesse del round corrente di una stanza e indice degli auto-cashout per target (in centesimi),
+ * congelato al decollo. Le aggiunte sono lock-free e possono arrivare dall'event loop: il round accetta
+ * scommesse solo tra {@link #open} e {@link #close}.
+ */
+public class BetRegistry {
+
+    private final Map<String, Bet> currentRoundBets = new ConcurrentHashMap<>();
+    // Puntate in fase di piazzamento (roundId:userId:indice), dal controllo iniziale alla registrazione
+    private final Set<String> placing = ConcurrentHashMap.newKeySet();
+    private volatile AutoCashoutIndex autoCashouts = AutoCashoutIndex.EMPTY;
+    private volatile String openRound;
+
+    public static String betKey(String userId, int index) {
+        return userId + ":" + index;
+    }
+
+    public Bet get(String userId, int index) {
+        return currentRoundBets.get(betKey(userId, index));
+    }
+
+    public boolean contains(String userId, int index) {
+        return currentRoundBets.containsKey(betKey(userId, index));
+    }
+
+    /**
+     * Riserva la puntata per un piazzamento: fallisce se la scommessa esiste già o se un'altra richiesta
+     * per la stessa puntata è ancora in corso, così due richieste concorrenti non arrivano entrambe al wallet.
+     * Va sempre chiusa con {@link #endPlacement}.
+     */
+    public boolean beginPlacement(String roundId, String userId, int index) {
+        return !contains(userId, index) && placing.add(roundId + ":" + betKey(userId, index));
+    }
+
+    public void endPlacement(String roundId, String userId, int index) {
+        placing.remove(roundId + ":" + betKey(userId, index));
+    }
+
+    /**
+     * True finché il piazzamento della puntata non è concluso: la scommessa può essere già registrata
+     * ma non ancora persistita né annunciata, quindi non va annullata.
+     */
+    public boolean isPlacing(String roundId, String userId, int index) {
+        return placing.contains(roundId + ":" + betKey(userId, index));
+    }
+
+    /**
+     * Apre il round alle scommesse (WAITING).
+     */
+    public void open(String roundId) {
+        openRound = roundId;
+    }
+
+    /**
+     * Chiude il round alle scommesse; va chiamato prima di {@link #freezeAutoCashouts}.
+     */
+    public void close() {
+        openRound = null;
+    }
+
+    /**
+     * Registra la scommessa se il suo round è ancora aperto. L'inserimento precede il controllo
+     * del round, mentre il decollo chiude il round prima di congelare gli auto-cashout: o il decollo
+     * vede la scommessa, o la scommessa vede il round chiuso e viene ritirata (ROUND_STARTED).
+     */
+    public void add(Bet bet) {
+        String key = betKey(bet.getUserId(), bet.getIndex());
+        if (currentRoundBets.putIfAbsent(key, bet) != null) {
+            throw new IllegalStateException("Scommessa già presente.");
+        }
+        if (!bet.getGameId().equals(openRound)) {
+            // Se il freeze l'ha già vista e un auto-cashout l'ha incassata, la scommessa fa parte del round
+            if (bet.transition(BetState.OPEN, BetState.LOST)) {
+                currentRoundBets.remove(key, bet);
+                throw new IllegalStateException("ROUND_STARTED");
+            }
+        }
+    }
+
+    /**
+     * Reinserisce una scommessa persistita alla ripresa di un round, senza controlli.
+     */
+    public void restore(Bet bet) {
+        currentRoundBets.put(betKey(bet.getUserId(), bet.getIndex()), bet);
+    }
+
+    public Bet remove(String userId, int index) {
+        return currentRoundBets.remove(betKey(userId, index));
+    }
+
+    /**
+     * Costruisce l'indice degli auto-cashout dalle scommesse ancora aperte e restituisce
+     * i target distinti in ordine crescente. Chiamato al decollo (o alla ripresa di un round in volo),
+     * quando non possono più essere aggiunte scommesse.
+     */
+    public int[] freezeAutoCashouts() {
+        AutoCashoutIndex index = AutoCashoutIndex.freeze(currentRoundBets.values());
+        autoCashouts = index;
+        return index.distinctTargets();
+    }
+
+    /**
+     * Consegna le scommesse aperte con target raggiunto dal moltiplicatore indicato, una sola volta ciascuna.
+     */
+    public void drainAutoCashouts(int currentMultiplier, AutoCashoutConsumer consumer) {
+        autoCashouts.drain(currentMultiplier, consumer);
+    }
+
+    /**
+     * Chiude le scommesse ancora aperte al crash: un cashout arrivato dopo non può più vincere.
+     */
+    public void markOpenBetsLost() {
+        for (Bet bet : currentRoundBets.values()) {
+            bet.transition(BetState.OPEN, BetState.LOST);
+        }
+    }
+
+    public List<Bet> reset() {
+        List<Bet> oldBets = new ArrayList<>(currentRoundBets.values());
+        currentRoundBets.clear();
+        autoCashouts = AutoCashoutIndex.EMPTY;
+        return oldBets;
+    }
+
+    public Collection<Bet> getBets() {
+        return currentRoundBets.values();
+    }
+
+    @FunctionalInterface
+    public interface AutoCashoutConsumer {
+        void accept(Bet bet, int targetMultiplier);
+    }
+}
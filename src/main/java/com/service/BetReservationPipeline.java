@@ -0,0 +1,136 @@
+package com.service;
+
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Group commit delle prenotazioni di fondi per le scommesse. Le richieste concorrenti
+ * (tipicamente negli ultimi secondi di WAITING) vengono accodate e inviate al wallet in
+ * un'unica chiamata per batch: tutto ciò che si accumula mentre il batch precedente è in volo
+ * parte insieme. Ogni scommessa riceve il proprio esito. Non ci sono thread in attesa: il batch
+ * successivo parte dal completamento del precedente o dalla prima richiesta che trova il wallet libero.
+ * Non c'è un timeout lato richiesta: finché il batch è in volo i fondi possono essere già stati addebitati,
+ * per cui il chiamante riceve sempre l'esito reale del wallet (o il suo errore).
+ */
+@ApplicationScoped
+public class BetReservationPipeline {
+
+    private static final Logger LOG = Logger.getLogger(BetReservationPipeline.class);
+    private static final int MAX_BATCH = 256;
+
+    private record Pending(WalletReservation reservation, CompletableFuture<WalletResult> result) {
+    }
+
+    private final ReactiveWalletService walletService;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+    private final DistributionSummary batchSize;
+
+    private volatile boolean running = true;
+
+    @Inject
+    public BetReservationPipeline(ReactiveWalletService walletService, MeterRegistry meterRegistry) {
+        this.walletService = walletService;
+        this.batchSize = meterRegistry.summary("bet.reservation.batch.size");
+    }
+
+    /**
+     * Le prenotazioni ancora in coda falliscono subito; quelle già in un batch in volo ricevono il loro esito.
+     */
+    @PreDestroy
+    void close() {
+        running = false;
+        failQueued();
+    }
+
+    public CompletableFuture<WalletResult> submit(WalletReservation reservation) {
+        CompletableFuture<WalletResult> result = new CompletableFuture<>();
+        if (!running) {
+            result.completeExceptionally(new IllegalStateException("Servizio in arresto, riprova."));
+            return result;
+        }
+        queue.add(new Pending(reservation, result));
+        if (running) {
+            flush();
+        } else {
+            // close() può aver svuotato la coda prima dell'aggiunta
+            failQueued();
+        }
+        return result;
+    }
+
+    private void failQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result().completeExceptionally(new IllegalStateException("Servizio in arresto, riprova."));
+        }
+    }
+
+    /**
+     * Prenota i fondi; l'esito arriva con il batch in cui la richiesta è confluita.
+     *
+     * @return esito della prenotazione e saldo risultante
+     */
+    public Uni<WalletResult> reserve(WalletReservation reservation) {
+        return Uni.createFrom().completionStage(() -> submit(reservation));
+    }
+
+    /**
+     * Invia quanto è in coda se nessun batch è in volo; altrimenti ci penserà il suo completamento.
+     */
+    private void flush() {
+        while (!queue.isEmpty() && inFlight.compareAndSet(false, true)) {
+            List<Pending> batch = new ArrayList<>();
+            List<WalletReservation> reservations = new ArrayList<>();
+            Pending pending;
+            while (batch.size() < MAX_BATCH && (pending = queue.poll()) != null) {
+                batch.add(pending);
+                reservations.add(pending.reservation());
+            }
+            if (batch.isEmpty()) {
+                inFlight.set(false);
+                continue;
+            }
+
+            batchSize.record(batch.size());
+            Uni.createFrom().deferred(() -> walletService.reserveFunds(reservations)).subscribe().with(results -> {
+                try {
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).result().complete(results.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    // Esiti incompleti: chi non ne ha ricevuto uno lo tratta come esito incerto
+                    LOG.error("Esito non valido per il batch di " + batch.size() + " prenotazioni", e);
+                    for (Pending failed : batch) {
+                        failed.result().completeExceptionally(e);
+                    }
+                } finally {
+                    inFlight.set(false);
+                }
+                flush();
+            }, e -> {
+                LOG.error("Errore prenotazione batch di " + batch.size() + " scommesse", e);
+                for (Pending failed : batch) {
+                    failed.result().completeExceptionally(e);
+                }
+                inFlight.set(false);
+                flush();
+            });
+            return;
+        }
+    }
+}
@@ -1,15 +1,26 @@
 package com.service;
 
 import com.dto.CashOutResult;
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
 import com.model.Bet;
+import com.model.BetState;
 import com.model.Game;
 import com.model.GameState;
-import com.model.Player;
+import com.model.Money;
+import com.model.PlayerProfile;
 import com.repository.PlayerRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
 import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.quarkus.redis.datasource.sortedset.ReactiveSortedSetCommands;
 import io.quarkus.redis.datasource.sortedset.SortedSetCommands;
-import io.quarkus.redis.datasource.keys.KeyCommands;
 import io.quarkus.redis.datasource.sortedset.ZRangeArgs;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.inject.Instance;
 import jakarta.inject.Inject;
@@ -17,10 +28,9 @@ import org.jboss.logging.Logger;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.time.LocalDate;
 
@@ -28,150 +38,347 @@ import java.time.LocalDate;
 public class BettingService {
 
     private static final Logger LOG = Logger.getLogger(BettingService.class);
-    private final Map<String, Bet> currentRoundBets = new ConcurrentHashMap<>();
-    private final ConcurrentSkipListMap<Double, List<String>> autoCashoutMap = new ConcurrentSkipListMap<>();
+    private static final long CASHOUT_TIMEOUT_MS = 5000;
+    private static final int CREDIT_RETRY_ATTEMPTS = 10;
+    private static final long CREDIT_RETRY_BACKOFF_MS = 200;
     private final SortedSetCommands<String, String> zsetCommands;
-    private final KeyCommands<String> keyCommands;
-    private final io.quarkus.redis.datasource.value.ValueCommands<String, String> valueCommands;
+    private final ReactiveSortedSetCommands<String, String> reactiveZsetCommands;
+    private final ReactiveKeyCommands<String> reactiveKeyCommands;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private final PlayerRepository playerRepository;
     private final Instance<GameEngineService> gameEngineInstance;
     private final WalletService walletService;
+    private final ReactiveWalletService reactiveWalletService;
+    private final BetReservationPipeline reservations;
+    private final NonceGuard nonceGuard;
+    private final WalletJournal journal;
+    private final CommandRelay commandRelay;
+    private final Timer cashoutPricingDelay;
+    private final Timer cashoutSettlementLatency;
 
     @Inject
     public BettingService(RedisDataSource ds,
+            ReactiveRedisDataSource reactiveDs,
             PlayerRepository playerRepository,
             Instance<GameEngineService> gameEngineInstance,
-            WalletService walletService) {
+            WalletService walletService,
+            ReactiveWalletService reactiveWalletService,
+            BetReservationPipeline reservations,
+            NonceGuard nonceGuard,
+            WalletJournal journal,
+            CommandRelay commandRelay,
+            MeterRegistry meterRegistry) {
         this.zsetCommands = ds.sortedSet(String.class);
-        this.keyCommands = ds.key(String.class);
-        this.valueCommands = ds.value(String.class);
+        this.reactiveZsetCommands = reactiveDs.sortedSet(String.class);
+        this.reactiveKeyCommands = reactiveDs.key(String.class);
         this.playerRepository = playerRepository;
         this.gameEngineInstance = gameEngineInstance;
         this.walletService = walletService;
+        this.reactiveWalletService = reactiveWalletService;
+        this.reservations = reservations;
+        this.nonceGuard = nonceGuard;
+        this.journal = journal;
+        this.commandRelay = commandRelay;
+        this.cashoutPricingDelay = meterRegistry.timer("game.cashout.pricing.delay");
+        this.cashoutSettlementLatency = meterRegistry.timer("game.cashout.settlement.latency");
     }
 
     private GameEngineService getGameEngine() {
         return gameEngineInstance.get();
     }
 
-    private String getBetKey(String userId, int index) {
-        return userId + ":" + index;
+    /**
+     * Piazza una scommessa senza bloccare il chiamante: nonce, prenotazione dei fondi, profilo e
+     * salvataggio passano dai client reattivi, così l'endpoint può restare sull'event loop.
+     * I controlli iniziali falliscono il Uni come gli errori del wallet.
+     */
+    public Uni<Void> placeBet(String roomId, String userId, String username, double amount, double autoCashout,
+            int index, String nonce) {
+        return placeBet(roomId, userId, username, amount, autoCashout, index, nonce, false);
     }
 
-    public void placeBet(String userId, String username, double amount, double autoCashout, int index, String nonce) {
-        Game game = getGameEngine().getCurrentGame();
-
-        if (nonce != null && !nonce.isEmpty()) {
-            String nonceKey = "bet:nonce:" + nonce;
-            String existing = valueCommands.get(nonceKey);
-            if (existing != null) {
-                LOG.warn("Replay attack detected! Nonce: " + nonce + " User: " + userId);
-                throw new IllegalStateException("Duplicate bet (Replay detected).");
+    /**
+     * Come {@link #placeBet(String, String, String, double, double, int, String)}; con announce il leader
+     * pubblica anche BET_ANNOUNCEMENT. Se questo nodo non guida la stanza il comando va al leader
+     * tramite {@link CommandRelay}.
+     */
+    public Uni<Void> placeBet(String roomId, String userId, String username, double amount, double autoCashout,
+            int index, String nonce, boolean announce) {
+        return Uni.createFrom().deferred(() -> {
+            GameRoom room = getGameEngine().getRoom(roomId);
+            if (!room.isLeader()) {
+                return commandRelay.placeBet(room.getId(), userId, username, amount, autoCashout, index, nonce,
+                        announce);
             }
-            valueCommands.setex(nonceKey, 300, userId);
-        }
-
-        if (game == null || game.getStatus() != GameState.WAITING) {
-            throw new IllegalStateException("Non puoi scommettere ora.");
-        }
-        if (amount < 0.10 || amount > 100) {
-            throw new IllegalArgumentException("Importo non valido (0.10 - 100€)");
-        }
+            return executePlaceBet(room.getId(), userId, username, amount, autoCashout, index, nonce, announce);
+        });
+    }
 
-        String betKey = getBetKey(userId, index);
-        String txId = "bet:" + game.getId() + ":" + userId + ":" + index;
-        double finalAmount = round(amount);
-        boolean success = walletService.reserveFunds(userId, finalAmount, game.getId(), txId);
-        if (!success) {
-            throw new IllegalStateException("Saldo insufficiente.");
-        }
+    /**
+     * Esegue la scommessa su questo nodo, che deve essere il leader della stanza.
+     */
+    Uni<Void> executePlaceBet(String roomId, String userId, String username, double amount, double autoCashout,
+            int index, String nonce, boolean announce) {
+        return Uni.createFrom().deferred(() -> {
+            GameRoom room = getGameEngine().getRoom(roomId);
+            room.requireLeader();
+            Game game = room.getCurrentGame();
+
+            if (game == null || game.getStatus() != GameState.WAITING) {
+                throw new IllegalStateException("Non puoi scommettere ora.");
+            }
+            long amountCents = Money.toCents(amount);
+            if (amountCents < Money.toCents(room.getMinBet()) || amountCents > Money.toCents(room.getMaxBet())) {
+                throw new IllegalArgumentException(
+                        "Importo non valido (" + room.getMinBet() + " - " + room.getMaxBet() + "€)");
+            }
+            Uni<Boolean> nonceClaimed = (nonce != null && !nonce.isEmpty())
+                    ? nonceGuard.claim(nonce, userId)
+                    : Uni.createFrom().item(true);
+            String txId = "bet:" + game.getId() + ":" + userId + ":" + index;
+            BetRegistry bets = room.getBets();
+            if (!bets.beginPlacement(game.getId(), userId, index)) {
+                throw new IllegalStateException("Scommessa già presente.");
+            }
 
-        try {
-            getGameEngine().runInLock(() -> {
-                if (game.getStatus() != GameState.WAITING) {
-                    throw new IllegalStateException("ROUND_STARTED");
+            return nonceClaimed.chain(claimed -> {
+                if (!claimed) {
+                    LOG.warn("Replay attack detected! Nonce: " + nonce + " User: " + userId);
+                    throw new IllegalStateException("Duplicate bet (Replay detected).");
+                }
+                return reservations.reserve(new WalletReservation(userId, amountCents, game.getId(), txId))
+                        .onFailure().call(e -> releaseUncertainReservation(room, userId, amountCents, game.getId(),
+                                txId));
+            }).chain(reserved -> {
+                // Prenotazione già eseguita da un'altra richiesta: i fondi appartengono a quella scommessa,
+                // qui non c'è nulla da registrare né da rimborsare
+                if (reserved.alreadyProcessed()) {
+                    throw new IllegalStateException("Scommessa già presente.");
+                }
+                if (!reserved.success()) {
+                    throw new IllegalStateException("Saldo insufficiente.");
                 }
+                room.notifyBalance(userId, reserved.newBalanceCents());
+                return playerRepository.findProfileAsync(userId)
+                        .map(profile -> addBet(room, game, userId, username, amountCents, autoCashout, index,
+                                profile))
+                        .call(room::persistBet)
+                        .onFailure().recoverWithUni(e -> reactiveWalletService
+                                .refundBet(userId, amountCents, game.getId(), "refund:" + txId)
+                                .chain(refunded -> {
+                                    if (refunded.success()) {
+                                        room.notifyBalance(userId, refunded.newBalanceCents());
+                                    }
+                                    return Uni.createFrom().<Bet>failure("ROUND_STARTED".equals(e.getMessage())
+                                            ? new IllegalStateException("Il round è già iniziato, scommessa annullata.")
+                                            : e);
+                                }));
+            }).invoke(bet -> {
+                String avatarApiUrl = (bet.getAvatarUrl() != null && !bet.getAvatarUrl().isEmpty())
+                        ? "/users/" + userId + "/avatar"
+                        : "";
+                room.broadcast("BET:" + username + ":" + Money.format(amountCents) + ":" + index + ":"
+                        + avatarApiUrl);
+                if (announce) {
+                    room.broadcast("BET_ANNOUNCEMENT:" + username + ":" + amount);
+                }
+            }).replaceWithVoid()
+                    .onTermination().invoke(() -> bets.endPlacement(game.getId(), userId, index));
+        });
+    }
 
-                currentRoundBets.compute(betKey, (key, existingBet) -> {
-                    if (existingBet != null) {
-                        throw new IllegalStateException("Scommessa già presente.");
-                    }
+    /**
+     * Dopo un errore del wallet non si sa se la prenotazione sia stata applicata. La si ripete con la stessa
+     * transazione (idempotente: non addebita due volte) e la si rimborsa, così i fondi tornano comunque al
+     * giocatore. È sicuro perché la puntata è ancora riservata in {@link BetRegistry#beginPlacement}:
+     * nessun'altra richiesta può aver registrato una scommessa su questa transazione.
+     */
+    private Uni<Void> releaseUncertainReservation(GameRoom room, String userId, long amountCents, String roundId,
+            String txId) {
+        return reactiveWalletService.reserveFunds(userId, amountCents, roundId, txId)
+                .chain(replayed -> !replayed.success()
+                        ? Uni.createFrom().voidItem()
+                        : reactiveWalletService.refundBet(userId, amountCents, roundId, "refund:" + txId)
+                                .invoke(refunded -> {
+                                    if (refunded.success()) {
+                                        room.notifyBalance(userId, refunded.newBalanceCents());
+                                    }
+                                }).replaceWithVoid())
+                .onFailure().recoverWithItem(e -> {
+                    LOG.error("CRITICAL: Esito della prenotazione " + txId + " sconosciuto e rimborso non riuscito ("
+                            + Money.format(amountCents) + "€ per " + userId + "), verificare il saldo", e);
+                    return null;
+                });
+    }
 
-                    Player player = playerRepository.findById(userId);
-                    String avatarUrl = (player != null) ? player.getAvatarUrl() : null;
+    /**
+     * Registra la scommessa nel round se è ancora aperto, senza lock: può girare sull'event loop.
+     */
+    private Bet addBet(GameRoom room, Game game, String userId, String username, long amountCents,
+            double autoCashout, int index, PlayerProfile profile) {
+        String avatarUrl = (profile != null) ? profile.avatarUrl() : null;
+        Bet bet = new Bet(userId, username, game.getId(), amountCents, index, avatarUrl);
+        bet.setAutoCashout(autoCashout);
+        room.getBets().add(bet);
+        return bet;
+    }
 
-                    Bet bet = new Bet(userId, username, game.getId(), finalAmount, index, avatarUrl);
-                    bet.setAutoCashout(autoCashout);
-                    return bet;
-                });
-            });
-        } catch (Exception e) {
-            walletService.refundBet(userId, finalAmount, game.getId(), "refund:" + txId);
+    public Uni<CashOutResult> cashOut(String roomId, String userId, int index) {
+        return Uni.createFrom().deferred(() -> {
+            GameRoom room = getGameEngine().getRoom(roomId);
+            return room.isLeader()
+                    ? executeCashOut(room.getId(), userId, index)
+                    : commandRelay.cashOut(room.getId(), userId, index);
+        });
+    }
 
-            if ("ROUND_STARTED".equals(e.getMessage())) {
-                throw new IllegalStateException("Il round è già iniziato, scommessa annullata.");
+    Uni<CashOutResult> executeCashOut(String roomId, String userId, int index) {
+        return Uni.createFrom().deferred(() -> {
+            GameRoom room = getGameEngine().getRoom(roomId);
+            room.requireLeader();
+            Game game = room.getCurrentGame();
+            if (game == null || game.getStatus() != GameState.FLYING) {
+                throw new IllegalStateException("Gioco non attivo.");
             }
-            throw e;
-        }
+            return Uni.createFrom().completionStage(room.submitCashout(userId, index))
+                    .onFailure(e -> !(e instanceof RuntimeException))
+                    .transform(e -> new IllegalStateException("Cashout non riuscito.", e))
+                    .ifNoItem().after(Duration.ofMillis(CASHOUT_TIMEOUT_MS))
+                    .failWith(() -> new IllegalStateException("Cashout non confermato in tempo, verifica il saldo."));
+        });
+    }
 
-        if (autoCashout > 1.00) {
-            autoCashoutMap.computeIfAbsent(autoCashout, k -> new CopyOnWriteArrayList<>()).add(betKey);
+    /**
+     * Chiamato dal clock della stanza ad ogni tick: tutti i cashout manuali arrivati nell'intervallo
+     * vengono decisi al moltiplicatore del tick e accreditati insieme senza bloccare il thread del clock.
+     */
+    void settleManualCashouts(GameRoom room, int multiplierHundredths, List<PendingCashout> batch) {
+        long pricedAt = System.nanoTime();
+        List<Settlement> claimed = new ArrayList<>(batch.size());
+        List<PendingCashout> owners = new ArrayList<>(batch.size());
+        for (PendingCashout pending : batch) {
+            cashoutPricingDelay.record(pricedAt - pending.enqueuedNanos(), TimeUnit.NANOSECONDS);
+            try {
+                Settlement settlement = claim(room, room.getBets().get(pending.userId(), pending.index()),
+                        multiplierHundredths);
+                if (settlement == null) {
+                    pending.result().complete(null);
+                } else {
+                    claimed.add(settlement);
+                    owners.add(pending);
+                }
+            } catch (Exception e) {
+                pending.result().completeExceptionally(e);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
         }
 
-        Bet bet = currentRoundBets.get(betKey);
-        String avatarApiUrl = (bet.getAvatarUrl() != null && !bet.getAvatarUrl().isEmpty())
-                ? "/users/" + userId + "/avatar"
-                : "";
-        getGameEngine().broadcast("BET:" + username + ":" + amount + ":" + index + ":" + avatarApiUrl);
-    }
-
-    public CashOutResult cashOut(String userId, int index) {
-        return cashOut(userId, index, null);
+        settle(room, claimed).subscribe().with(results -> {
+            long settledAt = System.nanoTime();
+            for (int i = 0; i < owners.size(); i++) {
+                PendingCashout pending = owners.get(i);
+                cashoutSettlementLatency.record(settledAt - pending.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                CashOutResult result = results.get(i);
+                if (result != null) {
+                    pending.result().complete(result);
+                } else {
+                    pending.result().completeExceptionally(new IllegalStateException(
+                            "Vincita non ancora accreditata, nuovo tentativo in corso."));
+                }
+            }
+        }, e -> {
+            LOG.error("CRITICAL: Errore accredito batch di " + claimed.size() + " cashout manuali", e);
+            owners.forEach(pending -> pending.result().completeExceptionally(e));
+        });
     }
 
-    public CashOutResult cashOut(String userId, int index, Double targetMultiplier) {
-        Game game = getGameEngine().getCurrentGame();
-        if (game == null || (game.getStatus() != GameState.FLYING && targetMultiplier == null)) {
-            throw new IllegalStateException("Gioco non attivo.");
+    private record Settlement(Bet bet, double multiplier, long winCents) {
+        WalletCredit toCredit() {
+            return new WalletCredit(bet.getUserId(), winCents, bet.getGameId(),
+                    "win:" + bet.getGameId() + ":" + bet.getUserId() + ":" + bet.getIndex());
         }
-        return executeCashoutLogically(userId, index,
-                targetMultiplier != null ? targetMultiplier : game.getMultiplier());
     }
 
-    private synchronized CashOutResult executeCashoutLogically(String userId, int index, double multiplier) {
-        String betKey = getBetKey(userId, index);
-        Bet bet = currentRoundBets.get(betKey);
-
-        if (bet == null || bet.getCashOutMultiplier() > 0)
+    /**
+     * Il cashout è deciso dalla transizione OPEN → CASHED della scommessa: accredito, broadcast
+     * e classifica avvengono fuori da qualunque lock, in parallelo con gli altri cashout del round.
+     */
+    private Settlement claim(GameRoom room, Bet bet, int multiplierHundredths) {
+        if (bet == null || !bet.transition(BetState.OPEN, BetState.CASHED))
             return null;
 
-        double winAmount = round(bet.getAmount() * multiplier);
+        double multiplier = MultiplierCurve.toDouble(multiplierHundredths);
+        long winCents = Money.multiply(bet.getAmountCents(), multiplierHundredths);
 
         bet.setCashOutMultiplier(multiplier);
-        bet.setProfit(round(winAmount - bet.getAmount()));
-        if (bet.getAutoCashout() > 1.0) {
-            List<String> keys = autoCashoutMap.get(bet.getAutoCashout());
-            if (keys != null) {
-                keys.remove(betKey);
-            }
-        }
+        bet.setProfitCents(winCents - bet.getAmountCents());
+        room.persistBet(bet).subscribe().with(v -> {
+        });
 
-        getGameEngine().broadcast("CASHOUT:" + userId + ":" + multiplier + ":" + winAmount + ":" + index);
-
-        String txId = "win:" + bet.getGameId() + ":" + userId + ":" + index;
-        boolean success = walletService.creditWinnings(userId, winAmount, getGameEngine().getCurrentGame().getId(),
-                txId);
+        room.broadcast("CASHOUT:" + bet.getUserId() + ":" + multiplier + ":" + Money.format(winCents) + ":"
+                + bet.getIndex());
+        return new Settlement(bet, multiplier, winCents);
+    }
 
-        if (!success) {
-            LOG.error("CRITICAL: Errore accredito vincita manuale " + userId);
+    /**
+     * Accredita le vincite con una sola chiamata al wallet, che restituisce anche i nuovi saldi
+     * inviati ai giocatori come frame BALANCE. Una vincita non accreditata non ha risultato (null)
+     * né voce in classifica: viene ritentata in background con {@link #retryCredit}.
+     */
+    private Uni<List<CashOutResult>> settle(GameRoom room, List<Settlement> settlements) {
+        List<WalletCredit> credits = new ArrayList<>(settlements.size());
+        for (Settlement settlement : settlements) {
+            credits.add(settlement.toCredit());
         }
+        return reactiveWalletService.creditWinnings(credits)
+                .onFailure().recoverWithItem(e -> {
+                    LOG.error("Errore accredito batch di " + settlements.size() + " vincite, nuovo tentativo", e);
+                    return null;
+                })
+                .map(credited -> {
+                    List<CashOutResult> results = new ArrayList<>(settlements.size());
+                    for (int i = 0; i < settlements.size(); i++) {
+                        Settlement settlement = settlements.get(i);
+                        WalletResult credit = credited != null ? credited.get(i) : null;
+                        if (credit == null || !credit.success()) {
+                            retryCredit(room, settlement);
+                            results.add(null);
+                            continue;
+                        }
+                        room.notifyBalance(settlement.bet().getUserId(), credit.newBalanceCents());
+                        saveToLeaderboard(settlement.bet());
+                        results.add(new CashOutResult(Money.toDouble(settlement.winCents()),
+                                Money.toDouble(credit.newBalanceCents()), settlement.multiplier()));
+                    }
+                    return results;
+                });
+    }
 
-        double newBalance = walletService.getBalance(userId);
-        saveToLeaderboard(bet);
-
-        return new CashOutResult(winAmount, newBalance, multiplier);
+    /**
+     * Ritenta l'accredito di una singola vincita con backoff. La transazione win: è idempotente,
+     * quindi un tentativo ripetuto dopo un accredito riuscito ma non confermato non paga due volte.
+     */
+    private void retryCredit(GameRoom room, Settlement settlement) {
+        WalletCredit credit = settlement.toCredit();
+        reactiveWalletService.creditWinnings(credit.userId(), credit.amountCents(), credit.roundId(),
+                        credit.transactionId())
+                .invoke(result -> {
+                    if (!result.success()) {
+                        throw new IllegalStateException("Accredito rifiutato dal wallet");
+                    }
+                })
+                .onFailure().retry()
+                .withBackOff(Duration.ofMillis(CREDIT_RETRY_BACKOFF_MS), Duration.ofSeconds(30))
+                .atMost(CREDIT_RETRY_ATTEMPTS)
+                .subscribe().with(result -> {
+                    room.notifyBalance(credit.userId(), result.newBalanceCents());
+                    saveToLeaderboard(settlement.bet());
+                    LOG.warn("Vincita accreditata al nuovo tentativo, TX: " + credit.transactionId());
+                }, e -> LOG.error("CRITICAL: Errore accredito vincita " + credit.userId() + " TX: "
+                        + credit.transactionId() + " dopo " + CREDIT_RETRY_ATTEMPTS + " tentativi", e));
     }
 
     private void saveToLeaderboard(Bet bet) {
@@ -183,19 +390,22 @@ public class BettingService {
             Map<String, Object> data = new HashMap<>();
             data.put("userId", bet.getUserId());
             data.put("username", bet.getUsername());
-            data.put("betAmount", bet.getAmount());
-            data.put("profit", bet.getProfit());
+            data.put("betAmount", Money.toDouble(bet.getAmountCents()));
+            data.put("profit", Money.toDouble(bet.getProfitCents()));
             data.put("multiplier", bet.getCashOutMultiplier());
             data.put("timestamp", System.currentTimeMillis());
             data.put("avatarUrl", "/users/" + bet.getUserId() + "/avatar");
 
             String json = objectMapper.writeValueAsString(data);
 
-            zsetCommands.zadd(profitKey, bet.getProfit(), json);
-            keyCommands.expire(profitKey, 172800);
-
-            zsetCommands.zadd(multiKey, bet.getCashOutMultiplier(), json);
-            keyCommands.expire(multiKey, 172800);
+            Uni.join().all(
+                    reactiveZsetCommands.zadd(profitKey, Money.toDouble(bet.getProfitCents()), json).replaceWithVoid(),
+                    reactiveKeyCommands.expire(profitKey, 172800).replaceWithVoid(),
+                    reactiveZsetCommands.zadd(multiKey, bet.getCashOutMultiplier(), json).replaceWithVoid(),
+                    reactiveKeyCommands.expire(multiKey, 172800).replaceWithVoid())
+                    .andCollectFailures()
+                    .subscribe().with(v -> {
+                    }, e -> LOG.error("Error saving to leaderboard", e));
         } catch (Exception e) {
             LOG.error("Error saving to leaderboard", e);
         }
@@ -237,71 +447,120 @@ public class BettingService {
         }).filter(item -> item != null).collect(Collectors.toList());
     }
 
-    public void checkAutoCashouts(double currentMultiplier) {
-        var eligibleMap = autoCashoutMap.headMap(currentMultiplier, true);
-
-        if (eligibleMap.isEmpty()) {
+    /**
+     * Tutti gli auto-cashout scattati allo stesso istante vengono accreditati in un unico batch;
+     * il clock non attende l'esito del wallet.
+     */
+    public void checkAutoCashouts(GameRoom room, int currentMultiplier) {
+        if (!room.isLeader()) {
             return;
         }
-
-        for (Map.Entry<Double, List<String>> entry : eligibleMap.entrySet()) {
-            double targetMultiplier = entry.getKey();
-            List<String> betKeys = entry.getValue();
-
-            for (String betKey : betKeys) {
-                Bet bet = currentRoundBets.get(betKey);
-                if (bet != null && bet.getCashOutMultiplier() == 0) {
-                    try {
-                        cashOut(bet.getUserId(), bet.getIndex(), targetMultiplier);
-                    } catch (Exception e) {
-                        LOG.error("Errore autocashout ottimizzato " + betKey, e);
-                    }
+        List<Settlement> triggered = new ArrayList<>();
+        room.getBets().drainAutoCashouts(currentMultiplier, (bet, targetMultiplier) -> {
+            try {
+                Settlement settlement = claim(room, bet, targetMultiplier);
+                if (settlement != null) {
+                    triggered.add(settlement);
                 }
+            } catch (Exception e) {
+                LOG.error("Errore autocashout ottimizzato " + bet.getUserId() + ":" + bet.getIndex(), e);
             }
+        });
+        if (triggered.isEmpty()) {
+            return;
         }
-        eligibleMap.clear();
+        settle(room, triggered).subscribe().with(results -> {
+        }, e -> LOG.error("CRITICAL: Errore accredito batch di " + triggered.size() + " autocashout", e));
     }
 
-    public void cancelBet(String userId, int index) {
-        Game game = getGameEngine().getCurrentGame();
-        if (game == null || game.getStatus() != GameState.WAITING) {
-            throw new IllegalStateException("Troppo tardi.");
-        }
-
-        String betKey = getBetKey(userId, index);
-        Bet bet = currentRoundBets.remove(betKey);
-
-        if (bet == null)
-            throw new IllegalStateException("Nessuna scommessa.");
+    /**
+     * Annulla la scommessa in WAITING. Se questo nodo non guida la stanza il comando va al leader
+     * tramite {@link CommandRelay}.
+     */
+    public Uni<Void> cancelBet(String roomId, String userId, int index) {
+        return Uni.createFrom().deferred(() -> {
+            GameRoom room = getGameEngine().getRoom(roomId);
+            return room.isLeader()
+                    ? executeCancelBet(room.getId(), userId, index)
+                    : commandRelay.cancelBet(room.getId(), userId, index);
+        });
+    }
 
-        if (bet.getAutoCashout() > 1.0) {
-            List<String> keys = autoCashoutMap.get(bet.getAutoCashout());
-            if (keys != null) {
-                keys.remove(betKey);
-                if (keys.isEmpty()) {
-                    autoCashoutMap.remove(bet.getAutoCashout());
+    /**
+     * Esegue l'annullamento su questo nodo, che deve essere il leader della stanza. Il controllo sullo stato
+     * del round prende il lock della stanza, quindi gira su un worker; il rimborso è reattivo.
+     * Una scommessa ancora in piazzamento non si annulla: il suo HSET potrebbe arrivare su Redis dopo l'HDEL
+     * dell'annullamento e farla ricomparire, già rimborsata, alla ripresa del round su un altro nodo.
+     */
+    Uni<Void> executeCancelBet(String roomId, String userId, int index) {
+        return Uni.createFrom().deferred(() -> {
+            GameRoom room = getGameEngine().getRoom(roomId);
+            room.requireLeader();
+            Game game = room.getCurrentGame();
+            Bet[] removed = new Bet[1];
+
+            room.runInLock(() -> {
+                if (game == null || game.getStatus() != GameState.WAITING) {
+                    throw new IllegalStateException("Troppo tardi.");
                 }
-            }
-        }
+                if (room.getBets().isPlacing(game.getId(), userId, index)) {
+                    throw new IllegalStateException("Scommessa in elaborazione, riprova.");
+                }
+                removed[0] = room.getBets().remove(userId, index);
+            });
 
-        String txId = "refund:" + bet.getGameId() + ":" + userId + ":" + index;
-        walletService.refundBet(userId, bet.getAmount(), game.getId(), txId);
+            Bet bet = removed[0];
+            if (bet == null)
+                throw new IllegalStateException("Nessuna scommessa.");
+            room.forgetBet(bet).subscribe().with(v -> {
+            });
 
-        getGameEngine().broadcast("CANCEL_BET:" + userId + ":" + index);
+            String txId = "refund:" + bet.getGameId() + ":" + userId + ":" + index;
+            return reactiveWalletService.refundBet(userId, bet.getAmountCents(), game.getId(), txId)
+                    .invoke(refunded -> {
+                        if (refunded.success()) {
+                            room.notifyBalance(userId, refunded.newBalanceCents());
+                        }
+                        room.broadcast("CANCEL_BET:" + userId + ":" + index);
+                    })
+                    .onFailure().invoke(e -> LOG.error("CRITICAL: Rimborso " + txId + " non riuscito ("
+                            + Money.format(bet.getAmountCents()) + "€ per " + userId + "), verificare il saldo", e))
+                    .replaceWithVoid();
+        }).runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
     }
 
-    public List<Bet> resetBetsForNewRound() {
-        List<Bet> oldBets = new ArrayList<>(currentRoundBets.values());
-        currentRoundBets.clear();
-        autoCashoutMap.clear();
-        return oldBets;
+    /**
+     * Rimborsa le scommesse non incassate di un round che non può essere ripreso (es. failover senza seed).
+     */
+    public void refundBets(GameRoom room, Collection<Bet> bets) {
+        for (Bet bet : bets) {
+            if (bet.getState() == BetState.CASHED || bet.getCashOutMultiplier() > 0) {
+                continue;
+            }
+            String txId = "refund:" + bet.getGameId() + ":" + bet.getUserId() + ":" + bet.getIndex();
+            WalletResult refunded = walletService.refundBet(bet.getUserId(), bet.getAmountCents(), bet.getGameId(),
+                    txId);
+            if (refunded.success()) {
+                room.notifyBalance(bet.getUserId(), refunded.newBalanceCents());
+                LOG.warn("[" + room.getId() + "] Scommessa rimborsata per round non ripristinabile: " + txId);
+            }
+        }
+        if (!bets.isEmpty()) {
+            closeRound(bets.iterator().next().getGameId(), bets);
+        }
     }
 
-    private double round(double value) {
-        return Math.round(value * 100.0) / 100.0;
+    /**
+     * Registra nel journal del wallet l'esito del round secondo l'engine, per la riconciliazione.
+     */
+    public void closeRound(String roundId, Collection<Bet> bets) {
+        journal.closeRound(roundId, bets);
     }
 
-    public Map<String, Bet> getCurrentBets() {
-        return currentRoundBets;
+    public Map<String, Bet> getCurrentBets(String roomId) {
+        Map<String, Bet> snapshot = new HashMap<>();
+        getGameEngine().getRoom(roomId).getBets().getBets()
+                .forEach(bet -> snapshot.put(BetRegistry.betKey(bet.getUserId(), bet.getIndex()), bet));
+        return snapshot;
     }
 }
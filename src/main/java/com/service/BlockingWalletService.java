@@ -0,0 +1,70 @@
+package com.service;
+
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * {@link WalletService} bloccante sopra l'engine reattivo configurato (script Lua o WAL), per i
+ * chiamanti che girano già su worker o virtual thread: scheduler, cancellazioni, rimborsi di failover.
+ * Come il RedisDataSource bloccante, attende al massimo quarkus.redis.timeout.
+ */
+@ApplicationScoped
+public class BlockingWalletService implements WalletService {
+
+    private final ReactiveWalletService wallet;
+    private final Duration timeout;
+
+    @Inject
+    public BlockingWalletService(ReactiveWalletService wallet,
+            @ConfigProperty(name = "quarkus.redis.timeout", defaultValue = "10s") Duration timeout) {
+        this.wallet = wallet;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public WalletResult reserveFunds(String userId, long amountCents, String roundId, String transactionId) {
+        return await(wallet.reserveFunds(userId, amountCents, roundId, transactionId));
+    }
+
+    @Override
+    public List<WalletResult> reserveFunds(List<WalletReservation> reservations) {
+        return await(wallet.reserveFunds(reservations));
+    }
+
+    @Override
+    public WalletResult creditWinnings(String userId, long amountCents, String roundId, String transactionId) {
+        return await(wallet.creditWinnings(userId, amountCents, roundId, transactionId));
+    }
+
+    @Override
+    public List<WalletResult> creditWinnings(List<WalletCredit> credits) {
+        return await(wallet.creditWinnings(credits));
+    }
+
+    @Override
+    public WalletResult refundBet(String userId, long amountCents, String roundId, String transactionId) {
+        return await(wallet.refundBet(userId, amountCents, roundId, transactionId));
+    }
+
+    @Override
+    public WalletResult refill(String userId, long balanceCents, String transactionId) {
+        return await(wallet.refill(userId, balanceCents, transactionId));
+    }
+
+    @Override
+    public long getBalanceCents(String userId) {
+        return await(wallet.getBalanceCents(userId));
+    }
+
+    private <T> T await(Uni<T> operation) {
+        return operation.await().atMost(timeout);
+    }
+}
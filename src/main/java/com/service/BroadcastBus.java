@@ -0,0 +1,24 @@
+package com.service;
+
+/**
+ * Bus degli eventi di gioco (TICK, BET, CASHOUT...). L'engine pubblica una sola volta
+ * e ogni nodo gateway iscritto li consegna alle proprie sessioni WebSocket della stanza.
+ */
+public interface BroadcastBus {
+
+    /**
+     * Pubblica un evento per la stanza indicata, assegnandogli il prossimo numero di sequenza
+     * dell'epoca di leadership indicata (0 per eventi che non vengono dal leader corrente).
+     */
+    void publish(String roomId, long epoch, String message);
+
+    /**
+     * Registra un consumatore locale degli eventi pubblicati da qualunque nodo.
+     */
+    void subscribe(Listener listener);
+
+    @FunctionalInterface
+    interface Listener {
+        void onMessage(String roomId, long epoch, long sequence, String message);
+    }
+}
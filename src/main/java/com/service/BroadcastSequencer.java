@@ -0,0 +1,31 @@
+package com.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numerazione degli eventi per stanza lato publisher. La sequenza appartiene all'epoca del leader:
+ * con un'epoca più alta riparte da 1, mentre gli eventi senza epoca (nodi follower) o di un'epoca
+ * superata (ex leader) ricevono 0 e non vengono considerati nel controllo dei buchi.
+ */
+class BroadcastSequencer {
+
+    private record Epoch(long epoch, AtomicLong sequence) {
+    }
+
+    private final Map<String, Epoch> epochs = new ConcurrentHashMap<>();
+
+    long next(String roomId, long epoch) {
+        if (epoch == 0) {
+            return 0;
+        }
+        Epoch current = epochs.get(roomId);
+        if (current == null || current.epoch() < epoch) {
+            current = epochs.compute(roomId, (k, previous) -> previous == null || previous.epoch() < epoch
+                    ? new Epoch(epoch, new AtomicLong())
+                    : previous);
+        }
+        return current.epoch() == epoch ? current.sequence().incrementAndGet() : 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.service;
+
+import com.dto.CashOutResult;
+import io.smallrye.mutiny.Uni;
+
+/**
+ * Inoltro dei comandi di gioco al nodo leader della stanza. Il gateway che riceve una scommessa,
+ * un cashout o un annullamento per una stanza che non guida lo passa al leader e ne riceve l'esito;
+ * gli errori del leader arrivano come {@link IllegalStateException} o {@link IllegalArgumentException}.
+ */
+public interface CommandRelay {
+
+    Uni<Void> placeBet(String roomId, String userId, String username, double amount, double autoCashout,
+            int index, String nonce, boolean announce);
+
+    Uni<CashOutResult> cashOut(String roomId, String userId, int index);
+
+    Uni<Void> cancelBet(String roomId, String userId, int index);
+}
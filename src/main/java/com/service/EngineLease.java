@@ -0,0 +1,146 @@
+package com.service;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.redis.client.Command;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lease Redis che elegge il nodo che guida il game loop di una stanza.
+ * Il leader rinnova il lease; gli altri nodi provano ad acquisirlo periodicamente
+ * e subentrano appena scade. I comandi partono senza attendere la risposta, così il
+ * thread del clock non si blocca mai su Redis: il lease vale fino a TTL dall'invio
+ * dell'ultimo rinnovo confermato, e non oltre anche se Redis non risponde.
+ * Un follower subentra al più un quarto di TTL (più un round trip) dopo la scadenza del lease, non entro
+ * un tick: tentare l'acquisizione ad ogni tick moltiplicherebbe i SET NX per il numero di follower e stanze.
+ * Ogni acquisizione incrementa l'epoca della stanza (engine:epoch:{room}): gli eventi del bus
+ * la portano con sé, così i nodi distinguono un cambio di leader da un buco di sequenza.
+ */
+public class EngineLease {
+
+    private static final Logger LOG = Logger.getLogger(EngineLease.class);
+
+    // KEYS[1] = engine:leader:{room}
+    // ARGV[1] = nodeId
+    // ARGV[2] = ttl (ms)
+    private static final String RENEW_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """;
+
+    private static final String RELEASE_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """;
+
+    private final Redis redis;
+    private final String key;
+    private final String epochKey;
+    private final String nodeId;
+    private final long ttlMs;
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+
+    private volatile boolean held;
+    private volatile long heldUntilMillis;
+    private volatile long lastAttemptMillis;
+    private volatile long epoch;
+
+    public EngineLease(Redis redis, String roomId, String nodeId, long ttlMs) {
+        this.redis = redis;
+        this.key = "engine:leader:" + roomId;
+        this.epochKey = "engine:epoch:" + roomId;
+        this.nodeId = nodeId;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Verifica la leadership e, se è il momento, invia il rinnovo (ogni terzo di TTL) o il tentativo
+     * di acquisizione (ogni quarto di TTL) senza attenderne l'esito, che vale dai tick successivi.
+     *
+     * @return true se questo nodo è il leader della stanza
+     */
+    public boolean check(long nowMillis) {
+        if (held && nowMillis >= heldUntilMillis) {
+            held = false;
+            LOG.error("Lease " + key + " non rinnovato in tempo, passaggio a follower (nodo " + nodeId + ")");
+        }
+        long interval = held ? ttlMs / 3 : ttlMs / 4;
+        if (nowMillis - lastAttemptMillis >= interval && inFlight.compareAndSet(false, true)) {
+            lastAttemptMillis = nowMillis;
+            if (held) {
+                renew(nowMillis);
+            } else {
+                acquire(nowMillis);
+            }
+        }
+        return held && nowMillis < heldUntilMillis;
+    }
+
+    private void renew(long sentAtMillis) {
+        redis.send(Request.cmd(Command.EVAL).arg(RENEW_SCRIPT).arg(1).arg(key).arg(nodeId).arg(ttlMs))
+                .onTermination().invoke(() -> inFlight.set(false))
+                .subscribe().with(renewed -> {
+                    if (renewed != null && renewed.toLong() == 1L) {
+                        heldUntilMillis = sentAtMillis + ttlMs;
+                    } else if (held) {
+                        held = false;
+                        LOG.warn("Lease perso per " + key + " (nodo " + nodeId + ")");
+                    }
+                }, e -> LOG.warn("Rinnovo del lease " + key + " fallito: " + e.getMessage()));
+    }
+
+    /**
+     * SET NX e poi INCR dell'epoca: il lease e l'epoca stanno in slot diversi, ma l'epoca viene
+     * incrementata solo da chi ha appena ottenuto il lease, quindi cresce ad ogni cambio di leader.
+     */
+    private void acquire(long sentAtMillis) {
+        redis.send(Request.cmd(Command.SET).arg(key).arg(nodeId).arg("NX").arg("PX").arg(ttlMs))
+                .chain(acquired -> acquired != null && "OK".equals(acquired.toString())
+                        ? redis.send(Request.cmd(Command.INCR).arg(epochKey))
+                        : Uni.createFrom().nullItem())
+                .onTermination().invoke(() -> inFlight.set(false))
+                .subscribe().with(newEpoch -> {
+                    if (newEpoch != null) {
+                        epoch = newEpoch.toLong();
+                        heldUntilMillis = sentAtMillis + ttlMs;
+                        held = true;
+                        LOG.info("Lease acquisito per " + key + " (nodo " + nodeId + ", epoca " + epoch + ")");
+                    }
+                }, e -> LOG.debug("Acquisizione del lease " + key + " fallita: " + e.getMessage()));
+    }
+
+    /**
+     * Rilascia il lease allo shutdown, attendendo al massimo un TTL.
+     */
+    public void release() {
+        if (!held) {
+            return;
+        }
+        held = false;
+        try {
+            redis.send(Request.cmd(Command.EVAL).arg(RELEASE_SCRIPT).arg(1).arg(key).arg(nodeId))
+                    .await().atMost(Duration.ofMillis(ttlMs));
+        } catch (Exception e) {
+            LOG.warn("Rilascio lease fallito per " + key + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * Epoca dell'ultima acquisizione di questo nodo (0 se non ha mai guidato la stanza).
+     */
+    public long epoch() {
+        return epoch;
+    }
+}
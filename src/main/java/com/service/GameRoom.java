@@ -0,0 +1,706 @@
+package com.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.dto.CashOutResult;
+import com.model.Bet;
+import com.model.BetState;
+import com.model.Game;
+import com.model.GameState;
+import com.model.Money;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.hash.HashCommands;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.list.ListCommands;
+import io.quarkus.redis.datasource.value.ValueCommands;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.redis.client.Command;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Un tavolo di gioco indipendente: stato del round, scommesse, catena provably fair
+ * e iscritti WebSocket propri, guidati da un {@link RoundClock} dedicato.
+ * Solo il nodo che detiene l'{@link EngineLease} della stanza fa avanzare il round;
+ * gli altri nodi ne rispecchiano lo stato da Redis e subentrano alla scadenza del lease,
+ * riprendendo il round in corso da game:current.
+ */
+public class GameRoom {
+
+    private static final Logger LOG = Logger.getLogger(GameRoom.class);
+
+    public static final String DEFAULT_ID = "main";
+
+    private static final long WAITING_TIME_MS = 10000;
+    private static final long BETS_TTL_SECONDS = 3600;
+    private static final long MIRROR_INTERVAL_MS = 500;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // round: il primo round nuovo, già estratto, se non c'è un round da riprendere
+    private record Takeover(long generation, Game game, List<Bet> bets, long roundStartTime, PreparedRound round) {
+    }
+
+    private final String id;
+    private final double minBet;
+    private final double maxBet;
+
+    private volatile Game currentGame;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private boolean startingNewRound = false;
+    private final ReentrantLock gameLock = new ReentrantLock();
+    private final BetRegistry bets = new BetRegistry();
+    private final HistoryRing history = new HistoryRing();
+    private final Queue<PendingCashout> pendingCashouts = new ConcurrentLinkedQueue<>();
+
+    private long roundStartTime;
+    private long roundStartNanos;
+    private long lastSecondsBroadcast = -1;
+    private volatile boolean leader;
+
+    // Stato del subentro e del mirror, toccato solo dal thread del clock
+    private boolean takeoverPending;
+    private long takeoverGeneration;
+    private long lastMirrorMillis;
+    private final Queue<Takeover> takeovers = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Map<String, String>> mirrored = new AtomicReference<>();
+    private final AtomicBoolean mirroring = new AtomicBoolean();
+
+    private final RoundClock clock;
+    private final EngineLease lease;
+    private final RoundLookahead lookahead;
+    private final BroadcastBus broadcastBus;
+    private final GameStateWriter stateWriter;
+    private final BettingService bettingService;
+    private final ProvablyFairService provablyFairService;
+    private final HashCommands<String, String, String> hashCommands;
+    private final ReactiveHashCommands<String, String, String> reactiveHashCommands;
+    private final ListCommands<String, String> listCommands;
+    private final ValueCommands<String, String> valueCommands;
+    private final Redis redis;
+
+    public GameRoom(String id, double minBet, double maxBet, long tickPeriodMs,
+            String nodeId, long leaseMs,
+            RedisDataSource ds,
+            ReactiveRedisDataSource reactiveDs,
+            BroadcastBus broadcastBus,
+            GameStateWriter stateWriter,
+            BettingService bettingService,
+            ProvablyFairService provablyFairService,
+            MeterRegistry meterRegistry) {
+        this.id = id;
+        this.minBet = minBet;
+        this.maxBet = maxBet;
+        this.hashCommands = ds.hash(String.class);
+        this.reactiveHashCommands = reactiveDs.hash(String.class);
+        this.listCommands = ds.list(String.class);
+        this.valueCommands = ds.value(String.class);
+        this.redis = ds.getRedis();
+        this.lease = new EngineLease(ds.getRedis(), id, nodeId, leaseMs);
+        this.broadcastBus = broadcastBus;
+        this.stateWriter = stateWriter;
+        this.bettingService = bettingService;
+        this.provablyFairService = provablyFairService;
+        this.lookahead = provablyFairService.lookahead(id);
+        this.clock = new RoundClock("game-clock-" + id, tickPeriodMs, this::gameLoop,
+                meterRegistry.timer("game.tick.lateness", "room", id),
+                meterRegistry.counter("game.tick.skipped", "room", id));
+    }
+
+    /**
+     * Chiave Redis della stanza: la stanza di default mantiene le chiavi storiche (game:current).
+     */
+    String key(String name) {
+        return DEFAULT_ID.equals(id) ? "game:" + name : "game:" + id + ":" + name;
+    }
+
+    void start() {
+        provablyFairService.ensureChain(id);
+        loadHistory();
+        clock.start();
+    }
+
+    void stop() {
+        clock.stop();
+        lease.release();
+    }
+
+    void gameLoop(long nowNanos) {
+        long now = clock.toEpochMillis(nowNanos);
+
+        if (!lease.check(now)) {
+            if (leader || takeoverPending) {
+                stepDown();
+            }
+            mirrorFromRedis(now);
+            return;
+        }
+        if (!leader) {
+            if (!takeoverPending) {
+                beginTakeOver();
+            }
+            if (!completeTakeOver(nowNanos)) {
+                return;
+            }
+        }
+
+        if (startingNewRound)
+            return;
+        if (currentGame == null) {
+            // Nessun round da riprendere e buffer dei round ancora vuoto: si riprova ad ogni tick
+            startNewRound();
+            return;
+        }
+        if (currentGame.getStatus() != GameState.FLYING && !pendingCashouts.isEmpty()) {
+            failPendingCashouts("Gioco non attivo.");
+        }
+
+        switch (currentGame.getStatus()) {
+            case WAITING -> {
+                if (now >= currentGame.getStartTime()) {
+                    startGame();
+                } else {
+                    long remainingMs = currentGame.getStartTime() - now;
+                    long remainingSeconds = remainingMs / 1000;
+                    if (remainingSeconds != lastSecondsBroadcast) {
+                        broadcast("TIMER:" + remainingSeconds);
+                        lastSecondsBroadcast = remainingSeconds;
+                    }
+                }
+            }
+            case FLYING -> updateMultiplier(nowNanos);
+            case CRASHED -> {
+                if (now >= roundStartTime + 3000) {
+                    startNewRound();
+                }
+            }
+        }
+    }
+
+    private void startNewRound() {
+        startNewRound(null);
+    }
+
+    /**
+     * Avvia un round con il round già estratto, o con il prossimo del buffer. Se il buffer è vuoto
+     * lo stato resta invariato e il clock riprova al tick successivo.
+     */
+    private void startNewRound(PreparedRound prepared) {
+        if (startingNewRound)
+            return;
+        startingNewRound = true;
+
+        try {
+            PreparedRound round = prepared != null ? prepared : lookahead.next();
+            if (round == null) {
+                return;
+            }
+            currentGame = new Game();
+            currentGame.setId(UUID.randomUUID().toString());
+            currentGame.setStatus(GameState.WAITING);
+            currentGame.setMultiplierHundredths(MultiplierCurve.MIN_HUNDREDTHS);
+            currentGame.setCrashPointHundredths(round.crashPointHundredths());
+            currentGame.setSecret(round.seed());
+            currentGame.setHash(round.hash());
+            currentGame.setStartTime(clock.currentTimeMillis() + WAITING_TIME_MS);
+
+            bets.reset();
+            bets.open(currentGame.getId());
+            stateWriter.saveValue(key("seed"), currentGame.getId() + ":" + round.seed());
+            saveGameToRedis();
+
+            LOG.info("[" + id + "] Nuovo round creato: " + currentGame.getId() + " - Hash: " + currentGame.getHash());
+
+            broadcast("STATE:WAITING");
+            broadcast("TIMER:" + (WAITING_TIME_MS / 1000));
+            broadcast("HASH:" + currentGame.getHash());
+
+        } catch (Exception e) {
+            LOG.error("[" + id + "] Failed to start new round", e);
+        } finally {
+            startingNewRound = false;
+        }
+    }
+
+    private void startGame() {
+        gameLock.lock();
+        try {
+            bets.close();
+            currentGame.setStatus(GameState.FLYING);
+            roundStartNanos = System.nanoTime();
+            roundStartTime = clock.toEpochMillis(roundStartNanos);
+            running.set(true);
+            scheduleRoundTimers();
+            saveGameToRedis();
+            LOG.info("[" + id + "] Game Started! VESPA IN VOLO 🛵💨");
+
+            broadcast("STATE:RUNNING");
+            broadcast(MultiplierCurve.takeoffFrame(roundStartTime));
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Avvia il subentro fuori dal clock: le letture da Redis e gli eventuali rimborsi girano su un
+     * virtual thread, il clock applica il risultato al primo tick utile ({@link #completeTakeOver}).
+     * Fino ad allora il nodo non è leader e non accetta comandi.
+     */
+    private void beginTakeOver() {
+        takeoverPending = true;
+        long generation = ++takeoverGeneration;
+        lookahead.clear();
+        lookahead.refill();
+        Thread.ofVirtual().name("game-takeover-" + id).start(() -> {
+            Takeover result;
+            try {
+                result = loadTakeover(generation);
+            } catch (Exception e) {
+                LOG.error("[" + id + "] Ripresa del round fallita", e);
+                result = new Takeover(generation, null, List.of(), 0, null);
+            }
+            takeovers.add(result);
+        });
+    }
+
+    /**
+     * Applica sul clock il subentro preparato, se pronto. Risultati di subentri precedenti
+     * (lease perso e riacquisito nel frattempo) vengono scartati.
+     *
+     * @return true se il nodo è ora leader
+     */
+    private boolean completeTakeOver(long nowNanos) {
+        Takeover result = takeovers.poll();
+        while (result != null && result.generation() != takeoverGeneration) {
+            if (result.round() != null) {
+                lookahead.giveBack(List.of(result.round()));
+            }
+            result = takeovers.poll();
+        }
+        if (result == null) {
+            return false;
+        }
+        takeoverPending = false;
+        leader = true;
+        if (result.game() == null) {
+            currentGame = null;
+            startNewRound(result.round());
+            return true;
+        }
+
+        Game game = result.game();
+        gameLock.lock();
+        try {
+            bets.reset();
+            for (Bet bet : result.bets()) {
+                bets.restore(bet);
+                if (bet.getCashOutMultiplier() > 0) {
+                    bet.setState(BetState.CASHED);
+                }
+            }
+            if (game.getStatus() == GameState.WAITING) {
+                bets.open(game.getId());
+            } else {
+                bets.close();
+            }
+            currentGame = game;
+            roundStartTime = result.roundStartTime();
+
+            if (game.getStatus() == GameState.FLYING) {
+                long elapsedMs = clock.toEpochMillis(nowNanos) - result.roundStartTime();
+                roundStartNanos = nowNanos - TimeUnit.MILLISECONDS.toNanos(Math.max(elapsedMs, 0));
+                running.set(true);
+                scheduleRoundTimers();
+            }
+        } finally {
+            gameLock.unlock();
+        }
+
+        LOG.info("[" + id + "] Round " + game.getId() + " ripreso in stato " + game.getStatus()
+                + " con " + result.bets().size() + " scommesse");
+        return true;
+    }
+
+    private void stepDown() {
+        leader = false;
+        takeoverPending = false;
+        takeoverGeneration++;
+        bets.close();
+        running.set(false);
+        clock.cancelTimers();
+        failPendingCashouts("Il tavolo è gestito da un altro nodo, riprova.");
+        lookahead.clear();
+        LOG.warn("[" + id + "] Leadership persa, il nodo passa in standby");
+    }
+
+    /**
+     * Ricostruisce il round corrente da game:current, dal seed privato del round e dalle scommesse persistite.
+     * Se il round era in volo, crash e auto-cashout vengono ripianificati rispetto al decollo originale:
+     * quelli già scaduti scattano subito e l'idempotenza del wallet evita doppi accrediti.
+     * Se il round non è ripristinabile le sue scommesse vengono rimborsate e si riparte da un round nuovo,
+     * estratto qui: il clock non deve attendere la ricarica del buffer. Gira sul virtual thread del subentro.
+     */
+    private Takeover loadTakeover(long generation) {
+        Map<String, String> data = hashCommands.hgetall(key("current"));
+        String storedSeed = valueCommands.get(key("seed"));
+        if (data.isEmpty() || data.get("id") == null || storedSeed == null
+                || !storedSeed.startsWith(data.get("id") + ":")) {
+            if (data.get("id") != null) {
+                bettingService.refundBets(this, loadPersistedBets(data.get("id")));
+            }
+            return new Takeover(generation, null, List.of(), 0, lookahead.awaitNext());
+        }
+        String seed = storedSeed.substring(data.get("id").length() + 1);
+
+        Game game = new Game();
+        game.setId(data.get("id"));
+        game.setStatus(GameState.valueOf(data.get("status")));
+        game.setStartTime(Long.parseLong(data.get("startTime")));
+        game.setHash(data.get("hash"));
+        game.setSecret(seed);
+        game.setCrashPointHundredths(provablyFairService.calculateCrashPointHundredths(seed));
+        game.setMultiplierHundredths(MultiplierCurve.toHundredths(Double.parseDouble(data.get("multiplier"))));
+        long storedRoundStart = Long.parseLong(data.getOrDefault("roundStartTime", "0"));
+        return new Takeover(generation, game, loadPersistedBets(game.getId()), storedRoundStart, null);
+    }
+
+    /**
+     * I follower rispecchiano game:current a frequenza ridotta con il client reattivo; la risposta
+     * viene applicata dal clock al tick successivo, mai mentre il nodo è leader.
+     */
+    private void mirrorFromRedis(long now) {
+        Map<String, String> data = mirrored.getAndSet(null);
+        if (data != null) {
+            applyMirror(data);
+        }
+        if (now - lastMirrorMillis < MIRROR_INTERVAL_MS || !mirroring.compareAndSet(false, true)) {
+            return;
+        }
+        lastMirrorMillis = now;
+        reactiveHashCommands.hgetall(key("current"))
+                .onTermination().invoke(() -> mirroring.set(false))
+                .subscribe().with(mirrored::set,
+                        e -> LOG.debug("[" + id + "] Mirror dello stato fallito: " + e.getMessage()));
+    }
+
+    private void applyMirror(Map<String, String> data) {
+        try {
+            if (data.isEmpty() || data.get("id") == null) {
+                return;
+            }
+            Game mirror = new Game();
+            mirror.setId(data.get("id"));
+            mirror.setStatus(GameState.valueOf(data.get("status")));
+            mirror.setStartTime(Long.parseLong(data.get("startTime")));
+            mirror.setHash(data.get("hash"));
+            mirror.setMultiplierHundredths(MultiplierCurve.toHundredths(Double.parseDouble(data.get("multiplier"))));
+            roundStartTime = Long.parseLong(data.getOrDefault("roundStartTime", "0"));
+            if (mirror.getStatus() == GameState.CRASHED && data.get("crashPoint") != null) {
+                mirror.setCrashPointHundredths(MultiplierCurve.toHundredths(Double.parseDouble(data.get("crashPoint"))));
+                mirror.setSecret(data.get("secret"));
+            }
+            currentGame = mirror;
+        } catch (Exception e) {
+            LOG.debug("[" + id + "] Mirror dello stato non valido: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Le scommesse sono salvate in un hash per round con scadenza: il nuovo round non deve
+     * cancellare quello precedente, per cui nessuna scrittura sul clock thread.
+     */
+    private String betsKey(String roundId) {
+        return key("bets:" + roundId);
+    }
+
+    /**
+     * Salva la scommessa senza bloccare il chiamante (event loop o clock). Un errore viene solo
+     * registrato: lo stato in memoria resta quello autorevole per il round in corso.
+     */
+    Uni<Void> persistBet(Bet bet) {
+        String json;
+        try {
+            // L'avatar (spesso un data URL) non serve per riprendere il round
+            ObjectNode node = MAPPER.valueToTree(bet);
+            node.remove("avatarUrl");
+            json = MAPPER.writeValueAsString(node);
+        } catch (Exception e) {
+            LOG.error("[" + id + "] Errore serializzazione scommessa", e);
+            return Uni.createFrom().voidItem();
+        }
+        String betsKey = betsKey(bet.getGameId());
+        return redis.batch(List.of(
+                        Request.cmd(Command.HSET).arg(betsKey)
+                                .arg(BetRegistry.betKey(bet.getUserId(), bet.getIndex())).arg(json),
+                        Request.cmd(Command.EXPIRE).arg(betsKey).arg(BETS_TTL_SECONDS)))
+                .replaceWithVoid()
+                .onFailure().recoverWithItem(e -> {
+                    LOG.error("[" + id + "] Errore salvataggio scommessa su Redis", e);
+                    return null;
+                });
+    }
+
+    Uni<Void> forgetBet(Bet bet) {
+        return redis.send(Request.cmd(Command.HDEL).arg(betsKey(bet.getGameId()))
+                        .arg(BetRegistry.betKey(bet.getUserId(), bet.getIndex())))
+                .replaceWithVoid()
+                .onFailure().recoverWithItem(e -> {
+                    LOG.error("[" + id + "] Errore rimozione scommessa da Redis", e);
+                    return null;
+                });
+    }
+
+    private List<Bet> loadPersistedBets(String roundId) {
+        List<Bet> persisted = new ArrayList<>();
+        for (String json : hashCommands.hgetall(betsKey(roundId)).values()) {
+            try {
+                persisted.add(MAPPER.readValue(json, Bet.class));
+            } catch (Exception e) {
+                LOG.error("[" + id + "] Scommessa persistita non leggibile: " + json, e);
+            }
+        }
+        return persisted;
+    }
+
+    /**
+     * Le operazioni sul round sono accettate solo dal nodo leader della stanza.
+     */
+    public void requireLeader() {
+        if (!leader) {
+            throw new IllegalStateException("Il tavolo è gestito da un altro nodo, riprova.");
+        }
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public void runInLock(Runnable action) {
+        gameLock.lock();
+        try {
+            action.run();
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    /**
+     * Crash e auto-cashout hanno un istante noto al decollo: vengono pianificati
+     * sulla timer wheel del clock invece di essere rilevati al tick successivo.
+     * I target pari al crash point sono gestiti dal timer del crash stesso.
+     */
+    private void scheduleRoundTimers() {
+        int crashPoint = currentGame.getCrashPointHundredths();
+        clock.schedule(deadlineFor(crashPoint), this::onCrashTimer);
+
+        for (int target : bets.freezeAutoCashouts()) {
+            if (target >= crashPoint) {
+                break;
+            }
+            clock.schedule(deadlineFor(target), () -> onAutoCashoutTimer(target));
+        }
+    }
+
+    private long deadlineFor(int hundredths) {
+        return roundStartNanos + TimeUnit.MILLISECONDS.toNanos(MultiplierCurve.elapsedMillisFor(hundredths));
+    }
+
+    private void onAutoCashoutTimer(int target) {
+        if (currentGame.getStatus() == GameState.FLYING) {
+            bettingService.checkAutoCashouts(this, target);
+        }
+    }
+
+    private void onCrashTimer() {
+        if (currentGame.getStatus() == GameState.FLYING) {
+            int crashPoint = currentGame.getCrashPointHundredths();
+            drainCashouts(currentGame.getMultiplierHundredths());
+            bettingService.checkAutoCashouts(this, crashPoint);
+            crash(crashPoint);
+        }
+    }
+
+    private void updateMultiplier(long nowNanos) {
+        long timeElapsed = (nowNanos - roundStartNanos) / 1_000_000;
+        int currentMultiplier = MultiplierCurve.hundredthsAt(timeElapsed);
+
+        if (currentMultiplier >= currentGame.getCrashPointHundredths()) {
+            onCrashTimer();
+            return;
+        }
+        currentGame.setMultiplierHundredths(currentMultiplier);
+        drainCashouts(currentMultiplier);
+        broadcast(MultiplierCurve.tickFrame(currentMultiplier));
+    }
+
+    /**
+     * Accoda un cashout manuale: viene prezzato al moltiplicatore del prossimo tick insieme
+     * a tutti gli altri arrivati nello stesso intervallo, indipendentemente dall'ordine di arrivo.
+     */
+    public CompletableFuture<CashOutResult> submitCashout(String userId, int index) {
+        PendingCashout pending = new PendingCashout(userId, index, System.nanoTime(), new CompletableFuture<>());
+        pendingCashouts.add(pending);
+        return pending.result();
+    }
+
+    private void drainCashouts(int multiplierHundredths) {
+        if (pendingCashouts.isEmpty()) {
+            return;
+        }
+        List<PendingCashout> batch = new ArrayList<>();
+        PendingCashout pending;
+        while ((pending = pendingCashouts.poll()) != null) {
+            batch.add(pending);
+        }
+        bettingService.settleManualCashouts(this, multiplierHundredths, batch);
+    }
+
+    private void failPendingCashouts(String reason) {
+        PendingCashout pending;
+        while ((pending = pendingCashouts.poll()) != null) {
+            pending.result().completeExceptionally(new IllegalStateException(reason));
+        }
+    }
+
+    private void crash(int crashPoint) {
+        double finalMultiplier = MultiplierCurve.toDouble(crashPoint);
+        currentGame.setStatus(GameState.CRASHED);
+        currentGame.setMultiplierHundredths(crashPoint);
+        bets.markOpenBetsLost();
+        bettingService.closeRound(currentGame.getId(), bets.getBets());
+        running.set(false);
+        clock.cancelTimers();
+        roundStartTime = clock.currentTimeMillis();
+
+        saveGameToRedis();
+        saveToHistory(finalMultiplier);
+        history.add(crashPoint, currentGame.getSecret());
+
+        LOG.info("[" + id + "] CRASHED at " + finalMultiplier + "x 💥");
+        broadcast("CRASH:" + finalMultiplier + ":" + currentGame.getSecret());
+    }
+
+    private void saveGameToRedis() {
+        try {
+            Map<String, String> data = new HashMap<>();
+            data.put("id", currentGame.getId());
+            data.put("status", currentGame.getStatus().name());
+            data.put("multiplier", String.valueOf(currentGame.getMultiplier()));
+            data.put("startTime", String.valueOf(currentGame.getStartTime()));
+            data.put("roundStartTime", String.valueOf(roundStartTime));
+            if (currentGame.getHash() != null) {
+                data.put("hash", currentGame.getHash());
+            }
+
+            if (currentGame.getStatus() == GameState.CRASHED) {
+                data.put("crashPoint", String.valueOf(currentGame.getCrashPoint()));
+                data.put("secret", currentGame.getSecret() != null ? currentGame.getSecret() : "Unknown");
+            } else {
+                data.put("crashPoint", "HIDDEN");
+            }
+
+            stateWriter.saveCurrent(key("current"), data);
+        } catch (Exception e) {
+            LOG.error("Errore salvataggio game su Redis", e);
+        }
+    }
+
+    private void loadHistory() {
+        try {
+            history.load(listCommands.lrange(key("history"), 0, HistoryRing.CAPACITY - 1));
+        } catch (Exception e) {
+            LOG.error("[" + id + "] Caricamento history da Redis fallito", e);
+        }
+    }
+
+    /**
+     * I nodi in standby aggiornano il proprio storico dai CRASH ricevuti sul bus;
+     * il leader lo aggiorna direttamente al crash.
+     */
+    void onBusEvent(String message) {
+        if (leader || !message.startsWith("CRASH:")) {
+            return;
+        }
+        int sep = message.indexOf(':', 6);
+        if (sep > 0) {
+            history.add(MultiplierCurve.toHundredths(Double.parseDouble(message.substring(6, sep))),
+                    message.substring(sep + 1));
+        }
+    }
+
+    private void saveToHistory(double crashPoint) {
+        stateWriter.appendHistory(key("history"), crashPoint + ":" + currentGame.getSecret(), 200);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public double getMinBet() {
+        return minBet;
+    }
+
+    public double getMaxBet() {
+        return maxBet;
+    }
+
+    public Game getCurrentGame() {
+        return currentGame;
+    }
+
+    public BetRegistry getBets() {
+        return bets;
+    }
+
+    public List<String> getHistory() {
+        return history.view().getEntries();
+    }
+
+    public List<String> getFullHistory(int limit) {
+        List<String> entries = history.view().getEntries();
+        return entries.subList(0, Math.min(Math.max(limit, 0), entries.size()));
+    }
+
+    public HistoryRing.View getHistoryView() {
+        return history.view();
+    }
+
+    public long getRoundStartTime() {
+        return roundStartTime;
+    }
+
+    /**
+     * Pubblica con l'epoca del leader corrente; un nodo che non guida la stanza pubblica con epoca 0,
+     * fuori dalla sequenza del leader.
+     */
+    public void broadcast(String message) {
+        broadcastBus.publish(id, publishEpoch(), message);
+    }
+
+    /**
+     * Saldo aggiornato di un giocatore: viaggia sul bus come "BALANCE:userId:saldo" e ogni nodo
+     * lo consegna solo alle connessioni di quel giocatore.
+     */
+    public void notifyBalance(String userId, long balanceCents) {
+        broadcastBus.publish(id, publishEpoch(), "BALANCE:" + userId + ":" + Money.format(balanceCents));
+    }
+
+    private long publishEpoch() {
+        return lease.isHeld() ? lease.epoch() : 0;
+    }
+}
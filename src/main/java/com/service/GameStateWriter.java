@@ -0,0 +1,216 @@
+package com.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.redis.client.Command;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Persistenza write-behind dello stato dell'engine (game:current, seed del round e game:history).
+ * Il game loop accoda e prosegue; un thread dedicato scrive su Redis in un'unica pipeline
+ * per batch. Valori e snapshot di game:current si fondono per chiave (vince l'ultimo) e i valori
+ * precedono gli snapshot nella pipeline,
+ * le voci di history restano in ordine. In caso di errore il batch viene ritentato con
+ * backoff senza sovrascrivere snapshot più recenti; allo shutdown la coda viene svuotata.
+ */
+@ApplicationScoped
+public class GameStateWriter {
+
+    private static final Logger LOG = Logger.getLogger(GameStateWriter.class);
+    private static final long MAX_BACKOFF_MS = 2000;
+    private static final long SHUTDOWN_FLUSH_MS = 5000;
+
+    private record Snapshot(Map<String, String> fields, long enqueuedNanos) {
+    }
+
+    private record HistoryEntry(String key, String value, int maxLength, long enqueuedNanos) {
+    }
+
+    private final Redis redis;
+    private final int maxPendingHistory;
+    private final Map<String, Snapshot> pendingCurrent = new ConcurrentHashMap<>();
+    private final Map<String, Snapshot> pendingValues = new ConcurrentHashMap<>();
+    private final Deque<HistoryEntry> pendingHistory = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger historyDepth = new AtomicInteger();
+    private final Timer lag;
+    private final Counter retries;
+    private final Counter dropped;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    @Inject
+    public GameStateWriter(RedisDataSource ds, MeterRegistry meterRegistry,
+            @ConfigProperty(name = "game.persistence.max-pending-history", defaultValue = "1000") int maxPendingHistory) {
+        this.redis = ds.getRedis();
+        this.maxPendingHistory = Math.max(maxPendingHistory, 1);
+        this.lag = meterRegistry.timer("game.persistence.lag");
+        this.retries = meterRegistry.counter("game.persistence.retries");
+        this.dropped = meterRegistry.counter("game.persistence.dropped");
+        meterRegistry.gauge("game.persistence.queue.depth", this, GameStateWriter::getQueueDepth);
+    }
+
+    @PostConstruct
+    void init() {
+        running = true;
+        writer = Thread.ofPlatform().name("game-state-writer").daemon(true).start(this::writeLoop);
+    }
+
+    /**
+     * Ferma il writer dopo aver scritto quanto ancora in coda (al massimo {@value #SHUTDOWN_FLUSH_MS} ms).
+     * Chiamato dall'engine dopo l'arresto delle stanze; ulteriori chiamate non hanno effetto.
+     */
+    @PreDestroy
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(SHUTDOWN_FLUSH_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (getQueueDepth() > 0) {
+            LOG.error("Shutdown con " + getQueueDepth() + " scritture di stato non persistite");
+        }
+    }
+
+    /**
+     * Accoda lo snapshot dell'hash indicato; uno snapshot non ancora scritto viene sostituito.
+     */
+    public void saveCurrent(String key, Map<String, String> fields) {
+        pendingCurrent.put(key, new Snapshot(fields, System.nanoTime()));
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Accoda un SET della chiave indicata; scritto prima degli snapshot dello stesso batch, così
+     * game:current non punta mai a un round il cui seed non è ancora stato salvato.
+     */
+    public void saveValue(String key, String value) {
+        pendingValues.put(key, new Snapshot(Map.of("value", value), System.nanoTime()));
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Accoda LPUSH + LTRIM sulla lista indicata. Oltre il limite di coda la voce più vecchia viene scartata.
+     */
+    public void appendHistory(String key, String value, int maxLength) {
+        pendingHistory.addLast(new HistoryEntry(key, value, maxLength, System.nanoTime()));
+        if (historyDepth.incrementAndGet() > maxPendingHistory && pendingHistory.pollFirst() != null) {
+            historyDepth.decrementAndGet();
+            dropped.increment();
+        }
+        LockSupport.unpark(writer);
+    }
+
+    public int getQueueDepth() {
+        return pendingValues.size() + pendingCurrent.size() + historyDepth.get();
+    }
+
+    private void writeLoop() {
+        long backoffMs = 0;
+        long stopDeadline = 0;
+        while (running || getQueueDepth() > 0) {
+            if (!running) {
+                if (stopDeadline == 0) {
+                    stopDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_FLUSH_MS);
+                } else if (System.nanoTime() > stopDeadline) {
+                    return;
+                }
+            }
+            if (getQueueDepth() == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+            if (writeBatch()) {
+                backoffMs = 0;
+            } else {
+                retries.increment();
+                backoffMs = Math.min(Math.max(backoffMs * 2, 50), MAX_BACKOFF_MS);
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoffMs));
+            }
+        }
+    }
+
+    private boolean writeBatch() {
+        Map<String, Snapshot> values = take(pendingValues);
+        Map<String, Snapshot> current = take(pendingCurrent);
+        List<HistoryEntry> history = new ArrayList<>();
+        HistoryEntry entry;
+        while ((entry = pendingHistory.pollFirst()) != null) {
+            historyDepth.decrementAndGet();
+            history.add(entry);
+        }
+
+        List<Request> requests = new ArrayList<>(values.size() + current.size() + history.size() * 2);
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Snapshot> e : values.entrySet()) {
+            requests.add(Request.cmd(Command.SET).arg(e.getKey()).arg(e.getValue().fields().get("value")));
+            oldest = Math.min(oldest, e.getValue().enqueuedNanos());
+        }
+        for (Map.Entry<String, Snapshot> e : current.entrySet()) {
+            Request hset = Request.cmd(Command.HSET).arg(e.getKey());
+            e.getValue().fields().forEach((field, value) -> hset.arg(field).arg(value));
+            requests.add(hset);
+            oldest = Math.min(oldest, e.getValue().enqueuedNanos());
+        }
+        for (HistoryEntry h : history) {
+            requests.add(Request.cmd(Command.LPUSH).arg(h.key()).arg(h.value()));
+            requests.add(Request.cmd(Command.LTRIM).arg(h.key()).arg(0).arg(h.maxLength() - 1));
+            oldest = Math.min(oldest, h.enqueuedNanos());
+        }
+
+        try {
+            redis.batchAndAwait(requests);
+            lag.record(System.nanoTime() - oldest, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (Exception e) {
+            LOG.error("Scrittura di " + requests.size() + " comandi di stato fallita, nuovo tentativo", e);
+            // Gli snapshot accodati nel frattempo sono più recenti e hanno la precedenza
+            values.forEach(pendingValues::putIfAbsent);
+            current.forEach(pendingCurrent::putIfAbsent);
+            for (int i = history.size() - 1; i >= 0; i--) {
+                pendingHistory.addFirst(history.get(i));
+                historyDepth.incrementAndGet();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * remove(key) prende atomicamente lo snapshot presente: uno accodato dopo resta per il batch successivo.
+     */
+    private static Map<String, Snapshot> take(Map<String, Snapshot> pending) {
+        Map<String, Snapshot> taken = new LinkedHashMap<>();
+        for (String key : pending.keySet()) {
+            Snapshot snapshot = pending.remove(key);
+            if (snapshot != null) {
+                taken.put(key, snapshot);
+            }
+        }
+        return taken;
+    }
+}
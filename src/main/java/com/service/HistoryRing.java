@@ -0,0 +1,121 @@
+package com.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ultimi crash di una stanza in un ring buffer in memoria (crash point in centesimi e seed rivelato).
+ * Ad ogni crash viene pubblicata una vista immutabile con il frame HISTORY già serializzato
+ * e i corpi JSON di /game/history per limite, così join WebSocket e polling non toccano Redis.
+ * Un solo thread scrive (il clock della stanza o il listener del bus), i lettori sono liberi.
+ */
+public class HistoryRing {
+
+    public static final int CAPACITY = 200;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final int[] crashPoints = new int[CAPACITY];
+    private final String[] secrets = new String[CAPACITY];
+    private int head;
+    private int size;
+
+    private volatile View view = new View(Collections.emptyList());
+
+    /**
+     * Carica lo storico persistito (dal più recente al più vecchio), sostituendo il contenuto attuale.
+     */
+    public synchronized void load(List<String> entries) {
+        head = 0;
+        size = 0;
+        for (int i = Math.min(entries.size(), CAPACITY) - 1; i >= 0; i--) {
+            String entry = entries.get(i);
+            int sep = entry.indexOf(':');
+            if (sep > 0) {
+                push(MultiplierCurve.toHundredths(Double.parseDouble(entry.substring(0, sep))), entry.substring(sep + 1));
+            }
+        }
+        publish();
+    }
+
+    public synchronized void add(int crashPointHundredths, String secret) {
+        push(crashPointHundredths, secret);
+        publish();
+    }
+
+    public View view() {
+        return view;
+    }
+
+    private void push(int crashPointHundredths, String secret) {
+        crashPoints[head] = crashPointHundredths;
+        secrets[head] = secret;
+        head = (head + 1) % CAPACITY;
+        if (size < CAPACITY) {
+            size++;
+        }
+    }
+
+    private void publish() {
+        List<String> entries = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            int slot = (head - i + CAPACITY) % CAPACITY;
+            entries.add(MultiplierCurve.toDouble(crashPoints[slot]) + ":" + secrets[slot]);
+        }
+        view = new View(Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * Istantanea dello storico, dal crash più recente.
+     */
+    public static final class View {
+
+        private final List<String> entries;
+        private final String frame;
+        private final Map<Integer, String> jsonByLimit = new ConcurrentHashMap<>();
+        private final Map<Integer, String> tagByLimit = new ConcurrentHashMap<>();
+
+        private View(List<String> entries) {
+            this.entries = entries;
+            this.frame = entries.isEmpty() ? null : "HISTORY:" + String.join(",", entries);
+        }
+
+        /**
+         * Tag del corpo restituito da {@link #toJson} con lo stesso limite, ricavato dal contenuto:
+         * uguale su tutti i nodi e tra i riavvii finché i crash mostrati sono gli stessi.
+         */
+        public String tag(int limit) {
+            int n = Math.min(Math.max(limit, 0), entries.size());
+            return tagByLimit.computeIfAbsent(n,
+                    k -> k + "-" + Integer.toHexString(entries.subList(0, k).hashCode()));
+        }
+
+        public List<String> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Frame HISTORY per i nuovi iscritti, null se non ci sono ancora crash.
+         */
+        public String getFrame() {
+            return frame;
+        }
+
+        public String toJson(int limit) {
+            int n = Math.min(Math.max(limit, 0), entries.size());
+            return jsonByLimit.computeIfAbsent(n, k -> {
+                try {
+                    return MAPPER.writeValueAsString(entries.subList(0, k));
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.service;
+
+import io.quarkus.arc.DefaultBean;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bus per la modalità a nodo singolo: consegna gli eventi direttamente alle sessioni locali.
+ */
+@ApplicationScoped
+@DefaultBean
+public class InMemoryBroadcastBus implements BroadcastBus {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final BroadcastSequencer sequencer = new BroadcastSequencer();
+
+    @Override
+    public void publish(String roomId, long epoch, String message) {
+        long sequence = sequencer.next(roomId, epoch);
+        for (Listener listener : listeners) {
+            listener.onMessage(roomId, epoch, sequence, message);
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+}
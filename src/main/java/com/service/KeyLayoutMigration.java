@@ -0,0 +1,196 @@
+package com.service;
+
+import com.repository.RedisKeys;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.hash.HashCommands;
+import io.quarkus.redis.datasource.keys.KeyCommands;
+import io.quarkus.redis.datasource.keys.KeyScanArgs;
+import io.quarkus.redis.datasource.keys.KeyScanCursor;
+import io.quarkus.redis.datasource.sortedset.ScoredValue;
+import io.quarkus.redis.datasource.sortedset.SortedSetCommands;
+import io.quarkus.redis.datasource.sortedset.ZAddArgs;
+import io.quarkus.redis.datasource.value.ValueCommands;
+import io.quarkus.runtime.Startup;
+import io.vertx.mutiny.redis.client.Response;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.spi.ObserverMethod;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+
+/**
+ * Migrazione una tantum delle chiavi di giocatori e wallet al layout con hash tag di {@link RedisKeys}:
+ * player:id → player:{id}, player:id:tokens → player:{id}:tokens, e l'indice player:zero_balance
+ * ridistribuito sugli shard (con zeroSince nell'hash del giocatore). Va eseguita sul Redis singolo
+ * prima di passare al cluster, perché RENAME tra slot diversi non è ammesso.
+ * Le vecchie chiavi wallet:tx:* non vengono migrate: restano fino alla scadenza (24h).
+ * Richiede l'arresto completo del cluster: un nodo della versione precedente continuerebbe a scrivere saldi e
+ * token sulle vecchie chiavi dopo il RENAME, dividendo i saldi tra i due layout. Per questo non parte da sola:
+ * si avvia un solo nodo con {@code game.migration.key-layout=true} dopo aver fermato tutti gli altri.
+ * Senza il flag, se sono presenti chiavi del vecchio layout l'avvio fallisce, così un rolling deploy si ferma
+ * al primo nodo nuovo. Gira all'avvio, prima dell'engine; un marker la rende idempotente e un lock evita
+ * che due nodi la eseguano insieme.
+ */
+@ApplicationScoped
+@Startup(ObserverMethod.DEFAULT_PRIORITY - 1)
+public class KeyLayoutMigration {
+
+    private static final Logger LOG = Logger.getLogger(KeyLayoutMigration.class);
+    private static final String MARKER_KEY = "migration:key-layout:v2";
+    private static final String LOCK_KEY = "migration:key-layout:lock";
+    private static final String LEGACY_ZERO_BALANCE_KEY = "player:zero_balance";
+    private static final long LOCK_TTL_SECONDS = 600;
+    private static final long WAIT_FOR_OTHER_NODE_MS = 60_000;
+    private static final int SCAN_COUNT = 1000;
+
+    private final RedisDataSource ds;
+    private final KeyCommands<String> keyCommands;
+    private final ValueCommands<String, String> valueCommands;
+    private final HashCommands<String, String, String> hashCommands;
+    private final SortedSetCommands<String, String> sortedSetCommands;
+    private final boolean enabled;
+
+    @Inject
+    public KeyLayoutMigration(RedisDataSource ds,
+            @ConfigProperty(name = "game.migration.key-layout", defaultValue = "false") boolean enabled) {
+        this.ds = ds;
+        this.enabled = enabled;
+        this.keyCommands = ds.key(String.class);
+        this.valueCommands = ds.value(String.class);
+        this.hashCommands = ds.hash(String.class);
+        this.sortedSetCommands = ds.sortedSet(String.class);
+    }
+
+    @PostConstruct
+    void init() {
+        if (valueCommands.get(MARKER_KEY) != null) {
+            if (keyCommands.exists(LEGACY_ZERO_BALANCE_KEY)) {
+                LOG.error("CRITICAL: " + LEGACY_ZERO_BALANCE_KEY + " ricreato dopo la migrazione del layout chiavi:"
+                        + " un nodo della versione precedente è ancora attivo");
+            }
+            return;
+        }
+        if (!enabled) {
+            requireNoLegacyKeys();
+            return;
+        }
+        Response lock = ds.execute("SET", LOCK_KEY, "1", "NX", "EX", String.valueOf(LOCK_TTL_SECONDS));
+        if (lock == null || !"OK".equals(lock.toString())) {
+            waitForOtherNode();
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int renamed = migratePlayerKeys();
+            int indexed = migrateZeroBalanceIndex();
+            valueCommands.set(MARKER_KEY, Long.toString(System.currentTimeMillis()));
+            LOG.info("Migrazione layout chiavi completata: " + renamed + " chiavi rinominate, " + indexed
+                    + " saldi a zero reindicizzati in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            keyCommands.del(LOCK_KEY);
+        }
+    }
+
+    /**
+     * Senza migrazione abilitata il nodo può partire solo su un keyspace senza vecchie chiavi: in quel caso
+     * (installazione nuova) il marker viene scritto e la scansione non si ripete.
+     */
+    private void requireNoLegacyKeys() {
+        String legacy = keyCommands.exists(LEGACY_ZERO_BALANCE_KEY) ? LEGACY_ZERO_BALANCE_KEY : findLegacyKey();
+        if (legacy != null) {
+            throw new IllegalStateException("Chiavi del vecchio layout presenti (" + legacy + "): fermare tutti i nodi"
+                    + " e avviarne uno con game.migration.key-layout=true prima di avviare gli altri");
+        }
+        valueCommands.setnx(MARKER_KEY, Long.toString(System.currentTimeMillis()));
+    }
+
+    private String findLegacyKey() {
+        KeyScanCursor<String> cursor = keyCommands.scan(new KeyScanArgs().match("player:*").count(SCAN_COUNT));
+        while (cursor.hasNext()) {
+            for (String key : cursor.next()) {
+                if (targetKey(key) != null) {
+                    return key;
+                }
+            }
+        }
+        return null;
+    }
+
+    private int migratePlayerKeys() {
+        int renamed = 0;
+        KeyScanCursor<String> cursor = keyCommands.scan(new KeyScanArgs().match("player:*").count(SCAN_COUNT));
+        while (cursor.hasNext()) {
+            for (String key : cursor.next()) {
+                String target = targetKey(key);
+                if (target == null) {
+                    continue;
+                }
+                if (keyCommands.renamenx(key, target)) {
+                    renamed++;
+                } else {
+                    LOG.warn("Chiave " + target + " già presente, " + key + " lasciata invariata");
+                }
+            }
+        }
+        return renamed;
+    }
+
+    /**
+     * Nuovo nome di una chiave del vecchio layout, o null se la chiave non va migrata
+     * (indici email/username, chiavi già con hash tag, indice dei saldi a zero).
+     */
+    private static String targetKey(String key) {
+        if (key.indexOf('{') >= 0 || key.equals(LEGACY_ZERO_BALANCE_KEY)) {
+            return null;
+        }
+        String rest = key.substring("player:".length());
+        if (rest.startsWith("email:") || rest.startsWith("username:")) {
+            return null;
+        }
+        if (rest.indexOf(':') < 0) {
+            return RedisKeys.player(rest);
+        }
+        if (rest.endsWith(":tokens")) {
+            String playerId = rest.substring(0, rest.length() - ":tokens".length());
+            if (playerId.indexOf(':') < 0) {
+                return RedisKeys.playerTokens(playerId);
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int migrateZeroBalanceIndex() {
+        List<ScoredValue<String>> entries = sortedSetCommands.zrangeWithScores(LEGACY_ZERO_BALANCE_KEY, 0, -1);
+        for (ScoredValue<String> entry : entries) {
+            String playerId = entry.value();
+            sortedSetCommands.zadd(RedisKeys.zeroBalanceFor(playerId), new ZAddArgs().nx(),
+                    ScoredValue.of(playerId, entry.score()));
+            if (keyCommands.exists(RedisKeys.player(playerId))) {
+                hashCommands.hsetnx(RedisKeys.player(playerId), "zeroSince", Long.toString((long) entry.score()));
+            }
+        }
+        keyCommands.del(LEGACY_ZERO_BALANCE_KEY);
+        return entries.size();
+    }
+
+    private void waitForOtherNode() {
+        LOG.info("Migrazione layout chiavi in corso su un altro nodo, attendo...");
+        long deadline = System.currentTimeMillis() + WAIT_FOR_OTHER_NODE_MS;
+        while (valueCommands.get(MARKER_KEY) == null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Migrazione layout chiavi non completata entro "
+                        + WAIT_FOR_OTHER_NODE_MS + " ms");
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.service;
+
+import com.dto.CashOutResult;
+import io.quarkus.arc.DefaultBean;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Modalità a nodo singolo: non c'è un altro leader a cui inoltrare, il comando arriva durante
+ * un subentro e il client deve riprovare.
+ */
+@ApplicationScoped
+@DefaultBean
+public class LocalCommandRelay implements CommandRelay {
+
+    @Override
+    public Uni<Void> placeBet(String roomId, String userId, String username, double amount, double autoCashout,
+            int index, String nonce, boolean announce) {
+        return notLeader();
+    }
+
+    @Override
+    public Uni<CashOutResult> cashOut(String roomId, String userId, int index) {
+        return notLeader();
+    }
+
+    @Override
+    public Uni<Void> cancelBet(String roomId, String userId, int index) {
+        return notLeader();
+    }
+
+    private static <T> Uni<T> notLeader() {
+        return Uni.createFrom().failure(new IllegalStateException("Il tavolo è gestito da un altro nodo, riprova."));
+    }
+}
@@ -1,225 +1,637 @@
 package com.service;
 
-import com.model.Player;
-import com.repository.PlayerRepository;
-import io.quarkus.redis.datasource.RedisDataSource;
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+import com.repository.PlayerBalances;
+import com.repository.RedisKeys;
+import io.quarkus.arc.DefaultBean;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.mutiny.redis.client.Response;
+import io.vertx.redis.client.Command;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Wallet su Redis: ogni operazione è uno script Lua atomico sulle chiavi di un solo giocatore
+ * (hash e ledger di idempotenza del round condividono l'hash tag, vedi {@link RedisKeys}), quindi gira
+ * anche su Redis Cluster. L'indice dei saldi a zero, diviso per shard, viene aggiornato dopo lo script
+ * solo quando il saldo attraversa la soglia; il dato di riferimento è il campo zeroSince dell'hash.
+ * In cluster i batch vengono divisi per slot ed eseguiti in parallelo. Tutte le chiamate passano dal
+ * client reattivo: nessun thread resta in attesa di Redis.
+ * Ogni mutazione riuscita finisce anche nel {@link WalletJournal}: su Redis singolo dallo script stesso,
+ * in cluster (lo stream sta in un altro slot) con un XADD subito dopo.
+ */
 @ApplicationScoped
-public class LocalRedisWalletService implements WalletService {
+@DefaultBean
+public class LocalRedisWalletService implements ReactiveWalletService {
 
     private static final Logger LOG = Logger.getLogger(LocalRedisWalletService.class);
-    private static final String IDEMPOTENCY_PREFIX = "wallet:tx:";
     private static final long PROCESSED_TX_TTL_SECONDS = 86400; // 24 hours
+    private static final long ZERO_BALANCE_THRESHOLD_CENTS = 10;
+
+    // Saldo in centesimi interi (campo balanceCents). Un saldo ancora nel vecchio formato decimale
+    // (campo balance) viene convertito una sola volta al primo accesso.
+    // Le transazioni processate sono campi del ledger del giocatore per il round: un solo hash
+    // con un'unica scadenza al posto di una chiave per transazione.
+    // journal aggiunge la mutazione allo stream del wallet se la chiave è stata passata (non in cluster).
+    // markZero/clearZero ritornano la variazione da riportare sull'indice dei saldi a zero:
+    // 1 = aggiungere, -1 = rimuovere, 0 = nessuna.
+    private static final String BALANCE_CENTS_FN = """
+            local function balanceCents(playerKey)
+                local cents = redis.call('HGET', playerKey, 'balanceCents')
+                if cents then
+                    return tonumber(cents)
+                end
+                local legacy = redis.call('HGET', playerKey, 'balance')
+                if not legacy then
+                    return nil
+                end
+                cents = math.floor(tonumber(legacy) * 100 + 0.5)
+                redis.call('HSET', playerKey, 'balanceCents', cents)
+                redis.call('HDEL', playerKey, 'balance')
+                return cents
+            end
+
+            local function recordTx(ledgerKey, txId, ttl)
+                redis.call('HSET', ledgerKey, txId, 1)
+                redis.call('EXPIRE', ledgerKey, ttl)
+            end
+
+            local function journal(journalKey, maxLen, ledgerKey, cents, txId, kind)
+                if not journalKey then
+                    return
+                end
+                local user, round = string.match(ledgerKey, '^wallet:ledger:{(.-)}:(.*)$')
+                redis.call('XADD', journalKey, 'MAXLEN', '~', maxLen, '*',
+                    'user', user, 'cents', cents, 'tx', txId, 'round', round, 'type', kind)
+            end
+
+            local function markZero(playerKey, balance, threshold, now)
+                if balance < threshold and redis.call('HSETNX', playerKey, 'zeroSince', now) == 1 then
+                    return 1
+                end
+                return 0
+            end
+
+            local function clearZero(playerKey, balance)
+                if balance > 0 and redis.call('HDEL', playerKey, 'zeroSince') == 1 then
+                    return -1
+                end
+                return 0
+            end
+            """;
 
     // Script Lua per PRENOTARE fondi (Reserve)
     // KEYS[1] = player:{userId} (Hash)
-    // KEYS[2] = wallet:tx:{transactionId} (String)
-    // KEYS[3] = player:zero_balance (Sorted Set)
-    // ARGV[1] = userId (raw string)
-    // ARGV[2] = amount
+    // KEYS[2] = wallet:ledger:{userId}:roundId (Hash delle transazioni del round)
+    // KEYS[3] = wallet:journal (Stream, opzionale)
+    // ARGV[1] = transactionId
+    // ARGV[2] = amount (centesimi)
     // ARGV[3] = ttl (seconds)
     // ARGV[4] = now (timestamp for zero balance score)
-    private static final String RESERVE_SCRIPT = """
-            local userId = ARGV[1]
+    // ARGV[5] = soglia saldo zero (centesimi)
+    // ARGV[6] = lunghezza massima del journal
+    // Ritorna {stato, saldo dopo la transazione in centesimi, variazione indice saldi a zero}
+    private static final String RESERVE_SCRIPT = BALANCE_CENTS_FN + """
             local playerKey = KEYS[1]
-            local txKey = KEYS[2]
-            local zeroBalanceKey = KEYS[3]
+            local ledgerKey = KEYS[2]
+            local txId = ARGV[1]
             local amount = tonumber(ARGV[2])
             local txTtl = tonumber(ARGV[3])
             local now = tonumber(ARGV[4])
+            local zeroThreshold = tonumber(ARGV[5])
+            local journalKey = KEYS[3]
+            local maxLen = ARGV[6]
 
-            if redis.call('EXISTS', txKey) == 1 then
-                return 'PROCESSED'
+            local currentBalance = balanceCents(playerKey)
+            if not currentBalance then
+                return {'USER_NOT_FOUND', 0, 0}
             end
 
-            local balanceStr = redis.call('HGET', playerKey, 'balance')
-            if not balanceStr then
-                return 'USER_NOT_FOUND'
+            if redis.call('HEXISTS', ledgerKey, txId) == 1 then
+                return {'PROCESSED', currentBalance, 0}
             end
 
-            local currentBalance = tonumber(balanceStr)
             if currentBalance < amount then
-                return 'INSUFFICIENT_FUNDS'
+                return {'INSUFFICIENT_FUNDS', currentBalance, 0}
             end
 
-            local newBalance = currentBalance - amount
-            newBalance = math.floor(newBalance * 100 + 0.5) / 100
+            local newBalance = redis.call('HINCRBY', playerKey, 'balanceCents', -amount)
+            recordTx(ledgerKey, txId, txTtl)
+            journal(journalKey, maxLen, ledgerKey, amount, txId, 'bet')
 
-            redis.call('HSET', playerKey, 'balance', tostring(newBalance))
-            redis.call('SET', txKey, 'PROCESSED', 'EX', txTtl)
+            return {'OK', newBalance, markZero(playerKey, newBalance, zeroThreshold, now)}
+            """;
 
-            if newBalance < 0.10 then
-                redis.call('ZADD', zeroBalanceKey, 'NX', now, userId)
+    // Script Lua per ACCREDITARE vincite/rimborsi (Credit)
+    // KEYS[1] = player:{userId}
+    // KEYS[2] = wallet:ledger:{userId}:roundId
+    // KEYS[3] = wallet:journal (opzionale)
+    // ARGV[1] = transactionId
+    // ARGV[2] = amount (centesimi)
+    // ARGV[3] = ttl
+    // ARGV[4] = tipo della voce di journal (win, refund)
+    // ARGV[5] = lunghezza massima del journal
+    // Ritorna {stato, saldo dopo la transazione in centesimi, variazione indice saldi a zero}
+    private static final String CREDIT_SCRIPT = BALANCE_CENTS_FN + """
+            local playerKey = KEYS[1]
+            local ledgerKey = KEYS[2]
+            local txId = ARGV[1]
+            local amount = tonumber(ARGV[2])
+            local txTtl = tonumber(ARGV[3])
+            local journalKey = KEYS[3]
+            local kind = ARGV[4]
+            local maxLen = ARGV[5]
+
+            local currentBalance = balanceCents(playerKey)
+            if not currentBalance then
+                return {'USER_NOT_FOUND', 0, 0}
             end
 
-            return 'OK'
+            if redis.call('HEXISTS', ledgerKey, txId) == 1 then
+                return {'PROCESSED', currentBalance, 0}
+            end
+
+            local newBalance = redis.call('HINCRBY', playerKey, 'balanceCents', amount)
+            recordTx(ledgerKey, txId, txTtl)
+            journal(journalKey, maxLen, ledgerKey, amount, txId, kind)
+
+            return {'OK', newBalance, clearZero(playerKey, newBalance)}
             """;
 
-    // Script Lua per ACCREDITARE vincite/rimborsi (Credit)
+    // Script Lua per RICARICARE un saldo esaurito (Refill)
     // KEYS[1] = player:{userId}
-    // KEYS[2] = wallet:tx:{transactionId}
-    // KEYS[3] = player:zero_balance
-    // ARGV[1] = userId
-    // ARGV[2] = amount
+    // KEYS[2] = wallet:ledger:{userId}:refill
+    // KEYS[3] = wallet:journal (opzionale)
+    // ARGV[1] = transactionId
+    // ARGV[2] = saldo dopo la ricarica (centesimi)
     // ARGV[3] = ttl
-    private static final String CREDIT_SCRIPT = """
-            local userId = ARGV[1]
+    // ARGV[4] = lunghezza massima del journal
+    // Ritorna {stato, saldo dopo la transazione in centesimi, variazione indice saldi a zero}
+    private static final String REFILL_SCRIPT = BALANCE_CENTS_FN + """
             local playerKey = KEYS[1]
-            local txKey = KEYS[2]
-            local zeroBalanceKey = KEYS[3]
-            local amount = tonumber(ARGV[2])
+            local ledgerKey = KEYS[2]
+            local txId = ARGV[1]
+            local target = tonumber(ARGV[2])
             local txTtl = tonumber(ARGV[3])
+            local journalKey = KEYS[3]
+            local maxLen = ARGV[4]
 
-            if redis.call('EXISTS', txKey) == 1 then
-                return 'PROCESSED'
+            local currentBalance = balanceCents(playerKey)
+            if not currentBalance then
+                return {'USER_NOT_FOUND', 0, 0}
             end
 
-            local balanceStr = redis.call('HGET', playerKey, 'balance')
-            if not balanceStr then
-                return 'USER_NOT_FOUND'
+            if redis.call('HEXISTS', ledgerKey, txId) == 1 then
+                return {'PROCESSED', currentBalance, 0}
             end
 
-            local currentBalance = tonumber(balanceStr)
-            local newBalance = currentBalance + amount
-            newBalance = math.floor(newBalance * 100 + 0.5) / 100
+            if currentBalance > 0 then
+                return {'NOT_EMPTY', currentBalance, 0}
+            end
+
+            redis.call('HSET', playerKey, 'balanceCents', target)
+            recordTx(ledgerKey, txId, txTtl)
+            journal(journalKey, maxLen, ledgerKey, target, txId, 'refill')
+
+            return {'OK', target, clearZero(playerKey, target)}
+            """;
 
-            redis.call('HSET', playerKey, 'balance', tostring(newBalance))
-            redis.call('SET', txKey, 'PROCESSED', 'EX', txTtl)
+    // Script Lua per PRENOTARE i fondi di più scommesse in una sola chiamata (Batch Reserve)
+    // KEYS[2i-1] = player:{userId}, KEYS[2i] = wallet:ledger:{userId}:roundId per ogni prenotazione i
+    // KEYS[#KEYS] = wallet:journal, solo se il numero di chiavi è dispari
+    // ARGV[1] = ttl, ARGV[2] = now, ARGV[3] = soglia saldo zero (centesimi), ARGV[4] = lunghezza massima del journal
+    // ARGV[2i+3], ARGV[2i+4] = transactionId, amount (centesimi) per ogni prenotazione i
+    // Ritorna per ogni prenotazione lo stato (OK, PROCESSED, INSUFFICIENT_FUNDS, USER_NOT_FOUND),
+    // il saldo risultante e la variazione dell'indice dei saldi a zero
+    private static final String BATCH_RESERVE_SCRIPT = BALANCE_CENTS_FN + """
+            local txTtl = tonumber(ARGV[1])
+            local now = tonumber(ARGV[2])
+            local zeroThreshold = tonumber(ARGV[3])
+            local maxLen = ARGV[4]
+            local journalKey = nil
+            if #KEYS % 2 == 1 then
+                journalKey = KEYS[#KEYS]
+            end
+            local result = {}
+
+            for i = 1, math.floor(#KEYS / 2) do
+                local playerKey = KEYS[2 * i - 1]
+                local ledgerKey = KEYS[2 * i]
+                local txId = ARGV[2 * i + 3]
+                local amount = tonumber(ARGV[2 * i + 4])
+
+                local currentBalance = balanceCents(playerKey)
+                if not currentBalance then
+                    table.insert(result, 'USER_NOT_FOUND')
+                    table.insert(result, 0)
+                    table.insert(result, 0)
+                elseif redis.call('HEXISTS', ledgerKey, txId) == 1 then
+                    table.insert(result, 'PROCESSED')
+                    table.insert(result, currentBalance)
+                    table.insert(result, 0)
+                elseif currentBalance < amount then
+                    table.insert(result, 'INSUFFICIENT_FUNDS')
+                    table.insert(result, currentBalance)
+                    table.insert(result, 0)
+                else
+                    local newBalance = redis.call('HINCRBY', playerKey, 'balanceCents', -amount)
+                    recordTx(ledgerKey, txId, txTtl)
+                    journal(journalKey, maxLen, ledgerKey, amount, txId, 'bet')
+
+                    table.insert(result, 'OK')
+                    table.insert(result, newBalance)
+                    table.insert(result, markZero(playerKey, newBalance, zeroThreshold, now))
+                end
+            end
+
+            return result
+            """;
 
-            if newBalance > 0 then
-                redis.call('ZREM', zeroBalanceKey, userId)
+    // Script Lua per ACCREDITARE più vincite in una sola chiamata (Batch Credit)
+    // KEYS[2i-1] = player:{userId}, KEYS[2i] = wallet:ledger:{userId}:roundId per ogni accredito i
+    // KEYS[#KEYS] = wallet:journal, solo se il numero di chiavi è dispari
+    // ARGV[1] = ttl, ARGV[2] = lunghezza massima del journal, ARGV[3] = tipo della voce di journal
+    // ARGV[2i+2], ARGV[2i+3] = transactionId, amount (centesimi) per ogni accredito i
+    // Ritorna per ogni accredito lo stato (OK, PROCESSED, USER_NOT_FOUND), il saldo risultante
+    // e la variazione dell'indice dei saldi a zero
+    private static final String BATCH_CREDIT_SCRIPT = BALANCE_CENTS_FN + """
+            local txTtl = tonumber(ARGV[1])
+            local maxLen = ARGV[2]
+            local kind = ARGV[3]
+            local journalKey = nil
+            if #KEYS % 2 == 1 then
+                journalKey = KEYS[#KEYS]
+            end
+            local result = {}
+
+            for i = 1, math.floor(#KEYS / 2) do
+                local playerKey = KEYS[2 * i - 1]
+                local ledgerKey = KEYS[2 * i]
+                local txId = ARGV[2 * i + 2]
+                local amount = tonumber(ARGV[2 * i + 3])
+
+                local currentBalance = balanceCents(playerKey)
+                if not currentBalance then
+                    table.insert(result, 'USER_NOT_FOUND')
+                    table.insert(result, 0)
+                    table.insert(result, 0)
+                elseif redis.call('HEXISTS', ledgerKey, txId) == 1 then
+                    table.insert(result, 'PROCESSED')
+                    table.insert(result, currentBalance)
+                    table.insert(result, 0)
+                else
+                    local newBalance = redis.call('HINCRBY', playerKey, 'balanceCents', amount)
+                    recordTx(ledgerKey, txId, txTtl)
+                    journal(journalKey, maxLen, ledgerKey, amount, txId, kind)
+
+                    table.insert(result, 'OK')
+                    table.insert(result, newBalance)
+                    table.insert(result, clearZero(playerKey, newBalance))
+                end
             end
 
-            return 'OK'
+            return result
             """;
 
-    private final RedisDataSource ds;
-    private final PlayerRepository playerRepository;
+    private record Item(String userId, String roundId, String transactionId, long amountCents) {
+    }
+
+    private record Outcome(String status, long balanceCents, int zeroTransition) {
+    }
+
+    private final Redis redis;
+    private final PlayerBalances playerBalances;
+    private final WalletJournal journal;
+    private final boolean cluster;
     private final ConcurrentHashMap<String, String> scriptShaCache = new ConcurrentHashMap<>();
 
     @Inject
-    public LocalRedisWalletService(RedisDataSource ds, PlayerRepository playerRepository) {
-        this.ds = ds;
-        this.playerRepository = playerRepository;
+    public LocalRedisWalletService(ReactiveRedisDataSource ds, PlayerBalances playerBalances,
+            WalletJournal journal,
+            @ConfigProperty(name = "quarkus.redis.client-type", defaultValue = "standalone") String clientType) {
+        this(ds.getRedis(), playerBalances, journal, "cluster".equalsIgnoreCase(clientType));
+    }
 
-        try {
-            loadScript(RESERVE_SCRIPT);
-            loadScript(CREDIT_SCRIPT);
-        } catch (Exception e) {
-            LOG.warn("Impossibile pre-caricare gli script Redis all'avvio: " + e.getMessage());
+    LocalRedisWalletService(Redis redis, PlayerBalances playerBalances, WalletJournal journal, boolean cluster) {
+        this.redis = redis;
+        this.playerBalances = playerBalances;
+        this.journal = journal;
+        this.cluster = cluster;
+
+        // Pre-caricamento in background: il bean può nascere sull'event loop, dove non si può attendere
+        for (String script : List.of(RESERVE_SCRIPT, CREDIT_SCRIPT, BATCH_CREDIT_SCRIPT, BATCH_RESERVE_SCRIPT,
+                REFILL_SCRIPT)) {
+            loadScript(script).subscribe().with(sha -> {
+            }, e -> LOG.warn("Impossibile pre-caricare gli script Redis all'avvio: " + e.getMessage()));
         }
     }
 
-    private String loadScript(String script) {
-        return ds.execute("SCRIPT", "LOAD", script).toString();
+    private Uni<String> loadScript(String script) {
+        return redis.send(Request.cmd(Command.SCRIPT).arg("LOAD").arg(script)).map(Response::toString)
+                .invoke(sha -> scriptShaCache.put(script, sha));
     }
 
     @Override
-    public boolean reserveFunds(String userId, double amount, String roundId, String transactionId) {
-        List<String> keys = Arrays.asList(
-                "player:" + userId,
-                IDEMPOTENCY_PREFIX + transactionId,
-                "player:zero_balance");
-        List<String> args = Arrays.asList(
-                userId,
-                String.valueOf(amount),
-                String.valueOf(PROCESSED_TX_TTL_SECONDS),
-                String.valueOf(System.currentTimeMillis()));
-
-        String result = executeScript(RESERVE_SCRIPT, keys, args);
-
-        switch (result) {
+    public Uni<WalletResult> reserveFunds(String userId, long amountCents, String roundId, String transactionId) {
+        return executeSingle(RESERVE_SCRIPT, WalletJournal.BET, userId, roundId, transactionId, amountCents,
+                Long.toString(PROCESSED_TX_TTL_SECONDS),
+                Long.toString(System.currentTimeMillis()),
+                Long.toString(ZERO_BALANCE_THRESHOLD_CENTS),
+                Long.toString(journal.maxLen()))
+                .call(outcome -> updateZeroBalanceIndex(userId, outcome))
+                .map(outcome -> toReserveResult(userId, amountCents, transactionId, outcome, "Fondi riservati (Lua)"));
+    }
+
+    @Override
+    public Uni<List<WalletResult>> reserveFunds(List<WalletReservation> reservations) {
+        if (reservations.isEmpty()) {
+            return Uni.createFrom().item(List.of());
+        }
+        List<Item> items = new ArrayList<>(reservations.size());
+        for (WalletReservation reservation : reservations) {
+            items.add(new Item(reservation.userId(), reservation.roundId(), reservation.transactionId(),
+                    reservation.amountCents()));
+        }
+        return executeBatch(BATCH_RESERVE_SCRIPT, WalletJournal.BET, items,
+                Long.toString(PROCESSED_TX_TTL_SECONDS),
+                Long.toString(System.currentTimeMillis()),
+                Long.toString(ZERO_BALANCE_THRESHOLD_CENTS),
+                Long.toString(journal.maxLen()))
+                .call(outcomes -> updateZeroBalanceIndex(items, outcomes))
+                .map(outcomes -> {
+                    List<WalletResult> results = new ArrayList<>(reservations.size());
+                    for (int i = 0; i < reservations.size(); i++) {
+                        WalletReservation reservation = reservations.get(i);
+                        results.add(toReserveResult(reservation.userId(), reservation.amountCents(),
+                                reservation.transactionId(), outcomes.get(i), "Fondi riservati (Lua batch)"));
+                    }
+                    return results;
+                });
+    }
+
+    private WalletResult toReserveResult(String userId, long amountCents, String transactionId, Outcome outcome,
+            String logPrefix) {
+        switch (outcome.status()) {
             case "OK":
-                LOG.info("Fondi riservati (Lua): " + amount + " per user " + userId + ". TX: " + transactionId);
-                return true;
+                LOG.info(logPrefix + ": " + amountCents + " cent per user " + userId + ". TX: " + transactionId);
+                return new WalletResult(transactionId, true, outcome.balanceCents());
             case "PROCESSED":
                 LOG.warn("Transazione " + transactionId + " già processata (Idempotency Hit)");
-                return true;
+                return new WalletResult(transactionId, true, outcome.balanceCents(), true);
             case "INSUFFICIENT_FUNDS":
                 LOG.error("Fondi insufficienti per user " + userId);
-                return false;
+                return new WalletResult(transactionId, false, outcome.balanceCents());
             case "USER_NOT_FOUND":
                 LOG.error("Utente non trovato per reserveFunds: " + userId);
-                return false;
+                return new WalletResult(transactionId, false, outcome.balanceCents());
             default:
-                LOG.error("Risultato script sconosciuto: " + result);
-                return false;
+                LOG.error("Risultato script sconosciuto: " + outcome.status());
+                return new WalletResult(transactionId, false, outcome.balanceCents());
         }
     }
 
     @Override
-    public boolean creditWinnings(String userId, double amount, String roundId, String transactionId) {
-        return executeCredit(userId, amount, transactionId, "Vincita accreditata");
+    public Uni<WalletResult> creditWinnings(String userId, long amountCents, String roundId, String transactionId) {
+        return executeCredit(WalletJournal.WIN, userId, amountCents, roundId, transactionId, "Vincita accreditata");
     }
 
     @Override
-    public boolean refundBet(String userId, double amount, String roundId, String transactionId) {
-        return executeCredit(userId, amount, transactionId, "Rimborso effettuato");
+    public Uni<List<WalletResult>> creditWinnings(List<WalletCredit> credits) {
+        if (credits.isEmpty()) {
+            return Uni.createFrom().item(List.of());
+        }
+        List<Item> items = new ArrayList<>(credits.size());
+        for (WalletCredit credit : credits) {
+            items.add(new Item(credit.userId(), credit.roundId(), credit.transactionId(), credit.amountCents()));
+        }
+        return executeBatch(BATCH_CREDIT_SCRIPT, WalletJournal.WIN, items,
+                Long.toString(PROCESSED_TX_TTL_SECONDS),
+                Long.toString(journal.maxLen()),
+                WalletJournal.WIN)
+                .call(outcomes -> updateZeroBalanceIndex(items, outcomes))
+                .map(outcomes -> {
+                    List<WalletResult> results = new ArrayList<>(credits.size());
+                    for (int i = 0; i < credits.size(); i++) {
+                        WalletCredit credit = credits.get(i);
+                        results.add(toCreditResult(credit.userId(), credit.amountCents(), credit.transactionId(),
+                                outcomes.get(i), "Vincita accreditata (Lua batch)"));
+                    }
+                    return results;
+                });
     }
 
-    private boolean executeCredit(String userId, double amount, String transactionId, String logPrefix) {
-        List<String> keys = Arrays.asList(
-                "player:" + userId,
-                IDEMPOTENCY_PREFIX + transactionId,
-                "player:zero_balance");
-        List<String> args = Arrays.asList(
-                userId,
-                String.valueOf(amount),
-                String.valueOf(PROCESSED_TX_TTL_SECONDS));
+    @Override
+    public Uni<WalletResult> refundBet(String userId, long amountCents, String roundId, String transactionId) {
+        return executeCredit(WalletJournal.REFUND, userId, amountCents, roundId, transactionId,
+                "Rimborso effettuato");
+    }
 
-        String result = executeScript(CREDIT_SCRIPT, keys, args);
+    private Uni<WalletResult> executeCredit(String kind, String userId, long amountCents, String roundId,
+            String transactionId, String logPrefix) {
+        return executeSingle(CREDIT_SCRIPT, kind, userId, roundId, transactionId, amountCents,
+                Long.toString(PROCESSED_TX_TTL_SECONDS),
+                kind,
+                Long.toString(journal.maxLen()))
+                .call(outcome -> updateZeroBalanceIndex(userId, outcome))
+                .map(outcome -> toCreditResult(userId, amountCents, transactionId, outcome, logPrefix + " (Lua)"));
+    }
 
-        switch (result) {
+    private WalletResult toCreditResult(String userId, long amountCents, String transactionId, Outcome outcome,
+            String logPrefix) {
+        switch (outcome.status()) {
             case "OK":
-                LOG.info(logPrefix + " (Lua): " + amount + " per user " + userId + ". TX: " + transactionId);
-                return true;
+                LOG.info(logPrefix + ": " + amountCents + " cent per user " + userId + ". TX: " + transactionId);
+                return new WalletResult(transactionId, true, outcome.balanceCents());
             case "PROCESSED":
                 LOG.warn("Transazione " + transactionId + " già processata (Idempotency Hit)");
-                return true;
+                return new WalletResult(transactionId, true, outcome.balanceCents(), true);
             case "USER_NOT_FOUND":
-                return false;
+                return new WalletResult(transactionId, false, outcome.balanceCents());
             default:
-                LOG.error("Risultato script sconosciuto: " + result);
-                return false;
+                LOG.error("Risultato script sconosciuto: " + outcome.status());
+                return new WalletResult(transactionId, false, outcome.balanceCents());
         }
     }
 
     @Override
-    public double getBalance(String userId) {
-        Player player = playerRepository.findById(userId);
-        return player != null ? player.getBalance() : 0.0;
-    }
-
-    private String executeScript(String scriptContent, List<String> keys, List<String> args) {
-        String sha = scriptShaCache.computeIfAbsent(scriptContent, this::loadScript);
-        try {
-            return evalSha(sha, keys, args);
-        } catch (Exception e) {
-            if (e.getMessage() != null && e.getMessage().contains("NOSCRIPT")) {
-                LOG.warn("Script mancante (NOSCRIPT), ricaricamento in corso...");
-                sha = loadScript(scriptContent);
-                scriptShaCache.put(scriptContent, sha);
-                return evalSha(sha, keys, args);
+    public Uni<WalletResult> refill(String userId, long balanceCents, String transactionId) {
+        return executeSingle(REFILL_SCRIPT, WalletJournal.REFILL, userId, RedisKeys.REFILL_LEDGER, transactionId,
+                balanceCents,
+                Long.toString(PROCESSED_TX_TTL_SECONDS),
+                Long.toString(journal.maxLen()))
+                .call(outcome -> updateZeroBalanceIndex(userId, outcome))
+                .map(outcome -> {
+                    if ("NOT_EMPTY".equals(outcome.status())) {
+                        return new WalletResult(transactionId, false, outcome.balanceCents());
+                    }
+                    return toCreditResult(userId, balanceCents, transactionId, outcome, "Saldo ricaricato (Lua)");
+                });
+    }
+
+    @Override
+    public Uni<Long> getBalanceCents(String userId) {
+        return playerBalances.findBalanceCents(userId).map(balance -> balance != null ? balance : 0L);
+    }
+
+    /**
+     * Riporta sull'indice shardato dei saldi a zero il passaggio di soglia segnalato dallo script.
+     * L'indice è solo un punto di partenza per il RefillScheduler: la ricarica ricontrolla il saldo,
+     * per cui un errore viene registrato senza far fallire l'operazione.
+     */
+    private Uni<Void> updateZeroBalanceIndex(String userId, Outcome outcome) {
+        Uni<Void> update;
+        if (outcome.zeroTransition() > 0) {
+            update = playerBalances.markZeroBalance(userId);
+        } else if (outcome.zeroTransition() < 0) {
+            update = playerBalances.clearZeroBalance(userId);
+        } else {
+            return Uni.createFrom().voidItem();
+        }
+        return update.onFailure().recoverWithItem(e -> {
+            LOG.error("Aggiornamento indice saldi a zero fallito per user " + userId, e);
+            return null;
+        });
+    }
+
+    private Uni<Void> updateZeroBalanceIndex(List<Item> items, List<Outcome> outcomes) {
+        List<Uni<Void>> updates = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (outcomes.get(i).zeroTransition() != 0) {
+                updates.add(updateZeroBalanceIndex(items.get(i).userId(), outcomes.get(i)));
+            }
+        }
+        if (updates.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        return Uni.join().all(updates).andFailFast().replaceWithVoid();
+    }
+
+    /**
+     * Riporta nel journal le mutazioni riuscite quando lo script non ha potuto farlo (cluster).
+     */
+    private Uni<Void> journalOutsideScript(String kind, List<Item> items, List<Outcome> outcomes) {
+        if (!cluster) {
+            return Uni.createFrom().voidItem();
+        }
+        List<Uni<Void>> appends = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            if ("OK".equals(outcomes.get(i).status())) {
+                Item item = items.get(i);
+                appends.add(journal.append(item.userId(), item.amountCents(), item.transactionId(), item.roundId(),
+                        kind));
             }
-            throw e;
         }
+        if (appends.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        return Uni.join().all(appends).andFailFast().replaceWithVoid();
+    }
+
+    private Uni<Outcome> executeSingle(String script, String kind, String userId, String roundId,
+            String transactionId, long amountCents, String... args) {
+        List<String> keys = new ArrayList<>(3);
+        keys.add(RedisKeys.player(userId));
+        keys.add(RedisKeys.walletLedger(userId, roundId));
+        if (!cluster) {
+            keys.add(journal.key());
+        }
+        List<String> scriptArgs = new ArrayList<>(args.length + 2);
+        scriptArgs.add(transactionId);
+        scriptArgs.add(Long.toString(amountCents));
+        scriptArgs.addAll(Arrays.asList(args));
+        Item item = new Item(userId, roundId, transactionId, amountCents);
+        return executeScript(script, keys, scriptArgs)
+                .map(response -> new Outcome(response.get(0).toString(), response.get(1).toLong(),
+                        response.get(2).toInteger()))
+                .call(outcome -> journalOutsideScript(kind, List.of(item), List.of(outcome)));
+    }
+
+    /**
+     * Esegue lo script batch in una sola chiamata. In cluster le voci vengono raggruppate per slot
+     * (le voci di uno stesso giocatore restano insieme e in ordine) e i gruppi eseguiti in parallelo.
+     */
+    private Uni<List<Outcome>> executeBatch(String script, String kind, List<Item> items, String... header) {
+        if (!cluster) {
+            return evalBatch(script, items, header);
+        }
+        Map<Integer, List<Integer>> bySlot = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            bySlot.computeIfAbsent(RedisKeys.slot(RedisKeys.player(items.get(i).userId())), k -> new ArrayList<>())
+                    .add(i);
+        }
+        if (bySlot.size() == 1) {
+            return evalBatch(script, items, header).call(outcomes -> journalOutsideScript(kind, items, outcomes));
+        }
+
+        Outcome[] outcomes = new Outcome[items.size()];
+        List<Uni<Void>> groups = new ArrayList<>(bySlot.size());
+        for (List<Integer> indexes : bySlot.values()) {
+            groups.add(evalBatch(script, indexes.stream().map(items::get).toList(), header)
+                    .invoke(slotOutcomes -> {
+                        for (int j = 0; j < indexes.size(); j++) {
+                            outcomes[indexes.get(j)] = slotOutcomes.get(j);
+                        }
+                    })
+                    .replaceWithVoid());
+        }
+        return Uni.join().all(groups).andFailFast().map(done -> Arrays.asList(outcomes))
+                .call(all -> journalOutsideScript(kind, items, all));
+    }
+
+    private Uni<List<Outcome>> evalBatch(String script, List<Item> items, String... header) {
+        List<String> keys = new ArrayList<>(items.size() * 2 + 1);
+        List<String> args = new ArrayList<>(items.size() * 2 + header.length);
+        args.addAll(Arrays.asList(header));
+        for (Item item : items) {
+            keys.add(RedisKeys.player(item.userId()));
+            keys.add(RedisKeys.walletLedger(item.userId(), item.roundId()));
+            args.add(item.transactionId());
+            args.add(Long.toString(item.amountCents()));
+        }
+        if (!cluster) {
+            keys.add(journal.key());
+        }
+
+        return executeScript(script, keys, args).map(response -> {
+            List<Outcome> outcomes = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                outcomes.add(new Outcome(response.get(3 * i).toString(), response.get(3 * i + 1).toLong(),
+                        response.get(3 * i + 2).toInteger()));
+            }
+            return outcomes;
+        });
     }
 
-    private String evalSha(String sha, List<String> keys, List<String> args) {
-        List<String> cmdArgs = new ArrayList<>();
-        cmdArgs.add(sha);
-        cmdArgs.add(String.valueOf(keys.size()));
-        cmdArgs.addAll(keys);
-        cmdArgs.addAll(args);
+    private Uni<Response> executeScript(String scriptContent, List<String> keys, List<String> args) {
+        String cached = scriptShaCache.get(scriptContent);
+        Uni<String> sha = cached != null ? Uni.createFrom().item(cached) : loadScript(scriptContent);
+        return sha.chain(loaded -> eval(Command.EVALSHA, loaded, keys, args))
+                .onFailure(e -> e.getMessage() != null && e.getMessage().contains("NOSCRIPT"))
+                .recoverWithUni(e -> {
+                    // In cluster SCRIPT LOAD raggiunge un solo nodo: EVAL carica lo script sul nodo dello slot
+                    LOG.warn("Script mancante (NOSCRIPT), esecuzione con EVAL...");
+                    return eval(Command.EVAL, scriptContent, keys, args);
+                });
+    }
 
-        return ds.execute("EVALSHA", cmdArgs.toArray(new String[0])).toString();
+    private Uni<Response> eval(Command command, String script, List<String> keys, List<String> args) {
+        Request request = Request.cmd(command).arg(script).arg(keys.size());
+        keys.forEach(request::arg);
+        args.forEach(request::arg);
+        return redis.send(request);
     }
 }
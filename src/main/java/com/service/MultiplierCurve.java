@@ -0,0 +1,103 @@
+package com.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Curva del moltiplicatore in centesimi interi (100 = 1.00x).
+ * La tabella tempo trascorso (ms) -> moltiplicatore e i frame TICK vengono
+ * calcolati una sola volta, così il game loop non alloca nulla ad ogni tick.
+ */
+public final class MultiplierCurve {
+
+    public static final double GROWTH_RATE = 0.00006;
+    public static final int MIN_HUNDREDTHS = 100;
+    public static final int MAX_HUNDREDTHS = 10_000_000;
+
+    private static final int CACHED_FRAMES_LIMIT = 10_000; // 100.00x
+
+    private static final int[] HUNDREDTHS_BY_MILLIS;
+    private static final String[] TICK_FRAMES;
+
+    static {
+        int maxMillis = (int) Math.ceil(Math.log(MAX_HUNDREDTHS / 100.0) / GROWTH_RATE);
+        HUNDREDTHS_BY_MILLIS = new int[maxMillis + 1];
+        for (int t = 0; t <= maxMillis; t++) {
+            BigDecimal raw = new BigDecimal(Math.exp(GROWTH_RATE * t));
+            int hundredths = raw.movePointRight(2).setScale(0, RoundingMode.FLOOR).intValue();
+            HUNDREDTHS_BY_MILLIS[t] = Math.min(Math.max(hundredths, MIN_HUNDREDTHS), MAX_HUNDREDTHS);
+        }
+
+        TICK_FRAMES = new String[CACHED_FRAMES_LIMIT + 1];
+        for (int h = MIN_HUNDREDTHS; h <= CACHED_FRAMES_LIMIT; h++) {
+            TICK_FRAMES[h] = "TICK:" + toDouble(h);
+        }
+    }
+
+    private MultiplierCurve() {
+    }
+
+    public static int hundredthsAt(long elapsedMillis) {
+        if (elapsedMillis <= 0) {
+            return MIN_HUNDREDTHS;
+        }
+        if (elapsedMillis >= HUNDREDTHS_BY_MILLIS.length) {
+            return MAX_HUNDREDTHS;
+        }
+        return HUNDREDTHS_BY_MILLIS[(int) elapsedMillis];
+    }
+
+    /**
+     * Primo millisecondo dopo il decollo in cui la curva raggiunge il valore indicato.
+     */
+    public static long elapsedMillisFor(int hundredths) {
+        if (hundredths <= MIN_HUNDREDTHS) {
+            return 0;
+        }
+        int low = 0;
+        int high = HUNDREDTHS_BY_MILLIS.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (HUNDREDTHS_BY_MILLIS[mid] >= hundredths) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    public static String tickFrame(int hundredths) {
+        if (hundredths >= MIN_HUNDREDTHS && hundredths <= CACHED_FRAMES_LIMIT) {
+            return TICK_FRAMES[hundredths];
+        }
+        return "TICK:" + toDouble(hundredths);
+    }
+
+    /**
+     * Frame di decollo per i client che estrapolano la curva: istante di partenza (epoch ms)
+     * e tasso di crescita, con moltiplicatore = floor(100 * e^(rate * ms)) / 100.
+     */
+    public static String takeoffFrame(long roundStartEpochMillis) {
+        return "TAKEOFF:" + roundStartEpochMillis + ":" + GROWTH_RATE;
+    }
+
+    public static double toDouble(int hundredths) {
+        return hundredths / 100.0;
+    }
+
+    /**
+     * Converte un valore già troncato ai centesimi (es. crash point) nella rappresentazione intera.
+     */
+    public static int toHundredths(double multiplier) {
+        return (int) Math.round(multiplier * 100.0);
+    }
+
+    /**
+     * Converte un target di auto-cashout arrotondando per eccesso: il target 2.555x
+     * scatta al primo centesimo raggiungibile dalla curva, cioè 2.56x.
+     */
+    public static int targetToHundredths(double multiplier) {
+        return (int) Math.ceil(Math.round(multiplier * 1_000_000.0) / 10_000.0);
+    }
+}
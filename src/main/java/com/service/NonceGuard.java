@@ -0,0 +1,74 @@
+package com.service;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Protezione dal replay delle scommesse. I nonce visti di recente sono tenuti in memoria
+ * in bucket temporali che ruotano (finestra pari al TTL), così i duplicati locali vengono
+ * scartati senza Redis; il controllo autorevole tra i nodi è un unico SET NX EX atomico,
+ * eseguito senza bloccare il chiamante.
+ */
+@ApplicationScoped
+public class NonceGuard {
+
+    private static final String PREFIX = "bet:nonce:";
+    private static final long TTL_SECONDS = 300;
+    private static final int BUCKETS = 6;
+    private static final long BUCKET_MS = TTL_SECONDS * 1000 / (BUCKETS - 1);
+
+    private final ReactiveRedisDataSource ds;
+    @SuppressWarnings("unchecked")
+    private final Set<String>[] buckets = new Set[BUCKETS];
+    private final long[] bucketEpochs = new long[BUCKETS];
+
+    @Inject
+    public NonceGuard(ReactiveRedisDataSource ds) {
+        this.ds = ds;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+            bucketEpochs[i] = -1;
+        }
+    }
+
+    /**
+     * Registra il nonce se non è mai stato visto nella finestra di validità.
+     *
+     * @return false se il nonce è un duplicato
+     */
+    public Uni<Boolean> claim(String nonce, String userId) {
+        long epoch = System.currentTimeMillis() / BUCKET_MS;
+        Set<String> current = bucketFor(epoch);
+        for (int i = 0; i < BUCKETS; i++) {
+            Set<String> bucket = buckets[i];
+            if (bucket != current && epoch - bucketEpochs[i] < BUCKETS && bucket.contains(nonce)) {
+                return Uni.createFrom().item(false);
+            }
+        }
+        if (!current.add(nonce)) {
+            return Uni.createFrom().item(false);
+        }
+
+        return ds.execute("SET", PREFIX + nonce, userId, "NX", "EX", String.valueOf(TTL_SECONDS))
+                .map(set -> set != null && "OK".equals(set.toString()))
+                // Il nonce non è stato registrato: il client deve poter ritentare
+                .onFailure().invoke(e -> current.remove(nonce));
+    }
+
+    /**
+     * Bucket dell'intervallo corrente; un bucket scaduto viene svuotato e riassegnato.
+     */
+    private synchronized Set<String> bucketFor(long epoch) {
+        int slot = (int) (epoch % BUCKETS);
+        if (bucketEpochs[slot] != epoch) {
+            buckets[slot].clear();
+            bucketEpochs[slot] = epoch;
+        }
+        return buckets[slot];
+    }
+}
@@ -0,0 +1,11 @@
+package com.service;
+
+import com.dto.CashOutResult;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cashout manuale in attesa del prossimo tick della stanza, che ne fissa il moltiplicatore.
+ */
+public record PendingCashout(String userId, int index, long enqueuedNanos, CompletableFuture<CashOutResult> result) {
+}
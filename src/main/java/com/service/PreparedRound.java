@@ -0,0 +1,7 @@
+package com.service;
+
+/**
+ * Round già estratto dalla catena: seed segreto, hash pubblico e crash point in centesimi.
+ */
+public record PreparedRound(String seed, String hash, int crashPointHundredths) {
+}
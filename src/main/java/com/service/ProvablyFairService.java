@@ -5,9 +5,12 @@ import io.quarkus.redis.datasource.keys.KeyCommands;
 import io.quarkus.redis.datasource.list.ListCommands;
 import io.quarkus.redis.datasource.value.ValueCommands;
 import io.quarkus.runtime.Startup;
+import io.vertx.mutiny.redis.client.Response;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.nio.charset.StandardCharsets;
@@ -18,6 +21,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @ApplicationScoped
 @Startup
@@ -27,23 +34,89 @@ public class ProvablyFairService {
     private static final String CHAIN_KEY = "fairness:chain"; // La lista degli hash
     private static final String COMMITMENT_KEY = "fairness:commit"; // L'hash pubblico iniziale
     private static final int CHAIN_LENGTH = 10000; // Adjusted to 10k as per user request
+    private static final int NEXT_CHAIN_THRESHOLD = 1000; // Sotto questa soglia si prepara la catena successiva
 
+    // KEYS[1] = catena attiva, KEYS[2] = commitment attivo
+    // KEYS[3] = catena successiva, KEYS[4] = commitment successivo
+    private static final String ACTIVATE_NEXT_SCRIPT = """
+            if redis.call('LLEN', KEYS[1]) > 0 then
+                return 0
+            end
+            if redis.call('EXISTS', KEYS[3]) == 0 then
+                return -1
+            end
+            redis.call('RENAME', KEYS[3], KEYS[1])
+            redis.call('RENAME', KEYS[4], KEYS[2])
+            return 1
+            """;
+
+    // KEYS[1] = catena attiva; ARGV[1] = testa attesa ('' se vuota), ARGV[2..] = seed dall'ultimo al primo
+    private static final String RETURN_SCRIPT = """
+            if (redis.call('LINDEX', KEYS[1], 0) or '') ~= ARGV[1] then
+                return 0
+            end
+            for i = 2, #ARGV do
+                redis.call('LPUSH', KEYS[1], ARGV[i])
+            end
+            return 1
+            """;
+
+    private final RedisDataSource ds;
     private final ListCommands<String, String> listCommands;
     private final ValueCommands<String, String> valueCommands;
     private final KeyCommands<String> keyCommands;
+    private final int lookaheadSize;
+    private final Map<String, RoundLookahead> lookaheads = new ConcurrentHashMap<>();
+    private final ExecutorService refillExecutor = Executors.newSingleThreadExecutor(
+            r -> Thread.ofPlatform().name("fairness-refill").daemon(true).unstarted(r));
 
     @Inject
-    public ProvablyFairService(RedisDataSource ds) {
+    public ProvablyFairService(RedisDataSource ds,
+            @ConfigProperty(name = "game.fairness.lookahead", defaultValue = "8") int lookaheadSize) {
+        this.ds = ds;
         this.listCommands = ds.list(String.class);
         this.valueCommands = ds.value(String.class);
         this.keyCommands = ds.key(String.class);
+        this.lookaheadSize = Math.max(lookaheadSize, 1);
     }
 
     @PostConstruct
     void init() {
-        if (valueCommands.get(COMMITMENT_KEY) == null) {
-            LOG.info("Nessuna catena Provably Fair trovata (o invalidata). Generazione nuova catena sicura...");
-            generateNewChain();
+        ensureChain(GameRoom.DEFAULT_ID);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refillExecutor.shutdownNow();
+    }
+
+    /**
+     * Ogni stanza ha la propria catena; quella di default mantiene le chiavi storiche.
+     */
+    private String chainKey(String roomId) {
+        return GameRoom.DEFAULT_ID.equals(roomId) ? CHAIN_KEY : "fairness:" + roomId + ":chain";
+    }
+
+    private String commitmentKey(String roomId) {
+        return GameRoom.DEFAULT_ID.equals(roomId) ? COMMITMENT_KEY : "fairness:" + roomId + ":commit";
+    }
+
+    /**
+     * La catena successiva viene generata e pubblicata prima che quella attiva finisca.
+     */
+    private String nextChainKey(String roomId) {
+        return chainKey(roomId) + ":next";
+    }
+
+    private String nextCommitmentKey(String roomId) {
+        return commitmentKey(roomId) + ":next";
+    }
+
+    public void ensureChain(String roomId) {
+        if (valueCommands.get(commitmentKey(roomId)) == null) {
+            LOG.info("Nessuna catena Provably Fair trovata per la stanza " + roomId
+                    + " (o invalidata). Generazione nuova catena sicura...");
+            generateNewChain(roomId);
         }
     }
 
@@ -51,8 +124,12 @@ public class ProvablyFairService {
      * Genera una nuova Hash Chain usando SecureRandom e SHA-256.
      * Questa operazione è pesante, si fa all'avvio o quando la catena finisce.
      */
-    public void generateNewChain() {
-        keyCommands.del(CHAIN_KEY);
+    public void generateNewChain(String roomId) {
+        generateChain(roomId, chainKey(roomId), commitmentKey(roomId));
+    }
+
+    private void generateChain(String roomId, String chainKey, String commitmentKey) {
+        keyCommands.del(chainKey);
 
         SecureRandom random = new SecureRandom();
         byte[] seed = new byte[32];
@@ -75,34 +152,113 @@ public class ProvablyFairService {
         }
 
         String publicCommitment = currentHash;
-        valueCommands.set(COMMITMENT_KEY, publicCommitment);
         Collections.reverse(chain);
-        listCommands.rpush(CHAIN_KEY, chain.toArray(new String[0]));
-        LOG.info("Nuova catena Provably Fair generata. Lunghezza: " + CHAIN_LENGTH);
+        listCommands.rpush(chainKey, chain.toArray(new String[0]));
+        valueCommands.set(commitmentKey, publicCommitment);
+        LOG.info("Nuova catena Provably Fair generata per la stanza " + roomId + " (" + chainKey + "). Lunghezza: "
+                + CHAIN_LENGTH);
         LOG.info("PUBLIC COMMITMENT: " + publicCommitment);
     }
 
     /**
-     * Estrae il prossimo hash dalla catena per la partita corrente.
+     * Buffer dei prossimi round della stanza, ricaricato in background.
+     */
+    public RoundLookahead lookahead(String roomId) {
+        return lookaheads.computeIfAbsent(roomId,
+                id -> new RoundLookahead(id, lookaheadSize, this, refillExecutor));
+    }
+
+    /**
+     * Estrae dalla catena i prossimi round e ne calcola hash e crash point.
+     * Quando la catena attiva finisce si passa a quella successiva, già pubblicata;
+     * sotto soglia la successiva viene generata qui, fuori dal percorso di avvio del round.
      */
-    public String nextGameHash() {
-        String hash = listCommands.lpop(CHAIN_KEY);
+    List<PreparedRound> prepareRounds(String roomId, int count) {
+        List<String> seeds = new ArrayList<>(count);
+        seeds.addAll(popSeeds(roomId, count));
+        if (seeds.size() < count) {
+            activateNextChain(roomId);
+            seeds.addAll(popSeeds(roomId, count - seeds.size()));
+        }
 
-        if (hash == null) {
-            LOG.warn("Catena Provably Fair esaurita! Rigenerazione d'emergenza.");
-            generateNewChain();
-            return listCommands.lpop(CHAIN_KEY);
+        if (listCommands.llen(chainKey(roomId)) < NEXT_CHAIN_THRESHOLD
+                && valueCommands.get(nextCommitmentKey(roomId)) == null) {
+            LOG.info("Catena Provably Fair quasi esaurita (" + roomId + "), generazione della successiva");
+            generateChain(roomId, nextChainKey(roomId), nextCommitmentKey(roomId));
         }
 
-        return hash;
+        List<PreparedRound> rounds = new ArrayList<>(seeds.size());
+        for (String seed : seeds) {
+            rounds.add(new PreparedRound(seed, sha256(seed), calculateCrashPointHundredths(seed)));
+        }
+        return rounds;
     }
 
-    public String getCurrentCommitment() {
-        return valueCommands.get(COMMITMENT_KEY);
+    /**
+     * Rimette in testa alla catena round estratti ma mai giocati (buffer scartato a un cambio di leadership),
+     * così la sequenza pubblicata non ha buchi. Avviene solo se la testa attuale segue l'ultimo di quei round
+     * nella catena: se nel frattempo un altro leader ha estratto, o la catena è cambiata, i seed vanno persi.
+     */
+    void returnRounds(String roomId, List<PreparedRound> rounds) {
+        if (rounds.isEmpty()) {
+            return;
+        }
+        String chainKey = chainKey(roomId);
+        String head = listCommands.lindex(chainKey, 0);
+        if (head != null && !sha256(head).equals(rounds.get(rounds.size() - 1).seed())) {
+            LOG.warn("[" + roomId + "] Catena già avanzata, " + rounds.size() + " round estratti non restituiti");
+            return;
+        }
+        List<String> args = new ArrayList<>(rounds.size() + 4);
+        args.add(RETURN_SCRIPT);
+        args.add("1");
+        args.add(chainKey);
+        args.add(head != null ? head : "");
+        for (int i = rounds.size() - 1; i >= 0; i--) {
+            args.add(rounds.get(i).seed());
+        }
+        Response result = ds.execute("EVAL", args.toArray(new String[0]));
+        if (result == null || result.toLong() != 1L) {
+            LOG.warn("[" + roomId + "] Catena avanzata durante la restituzione, " + rounds.size() + " round persi");
+        } else {
+            LOG.info("[" + roomId + "] " + rounds.size() + " round non giocati restituiti alla catena");
+        }
     }
 
-    public long getRemainingGames() {
-        return listCommands.llen(CHAIN_KEY);
+    private List<String> popSeeds(String roomId, int count) {
+        List<String> seeds = listCommands.lpop(chainKey(roomId), count);
+        return seeds != null ? seeds : List.of();
+    }
+
+    private void activateNextChain(String roomId) {
+        String[] keys = { chainKey(roomId), commitmentKey(roomId), nextChainKey(roomId), nextCommitmentKey(roomId) };
+        Response result = ds.execute("EVAL", ACTIVATE_NEXT_SCRIPT, "4", keys[0], keys[1], keys[2], keys[3]);
+        if (result != null && result.toLong() == -1L) {
+            LOG.warn("Catena Provably Fair esaurita (" + roomId + ") senza catena successiva! Rigenerazione d'emergenza.");
+            generateChain(roomId, keys[2], keys[3]);
+            result = ds.execute("EVAL", ACTIVATE_NEXT_SCRIPT, "4", keys[0], keys[1], keys[2], keys[3]);
+        }
+        if (result == null || result.toLong() != 1L) {
+            return;
+        }
+        LOG.info("Catena Provably Fair successiva attivata per la stanza " + roomId
+                + ". Commitment: " + valueCommands.get(keys[1]));
+    }
+
+    public String getCurrentCommitment(String roomId) {
+        return valueCommands.get(commitmentKey(roomId));
+    }
+
+    public String getNextCommitment(String roomId) {
+        return valueCommands.get(nextCommitmentKey(roomId));
+    }
+
+    /**
+     * Round rimasti nella catena attiva, inclusi quelli già estratti nel buffer.
+     */
+    public long getRemainingGames(String roomId) {
+        RoundLookahead lookahead = lookaheads.get(roomId);
+        return listCommands.llen(chainKey(roomId)) + (lookahead != null ? lookahead.getBuffered() : 0);
     }
 
     public double calculateCrashPoint(String hash) {
@@ -121,6 +277,10 @@ public class ProvablyFairService {
         return Math.floor(multiplier * 100) / 100.0;
     }
 
+    public int calculateCrashPointHundredths(String hash) {
+        return MultiplierCurve.toHundredths(calculateCrashPoint(hash));
+    }
+
     public String sha256(String input) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
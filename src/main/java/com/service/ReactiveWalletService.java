@@ -0,0 +1,48 @@
+package com.service;
+
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+import io.smallrye.mutiny.Uni;
+
+import java.util.List;
+
+/**
+ * Variante non bloccante di {@link WalletService}, da usare sull'event loop: ogni operazione
+ * restituisce un {@link Uni} che si completa all'esito dello storage, senza occupare thread in attesa.
+ * Semantica, idempotenza e importi in centesimi sono gli stessi della variante bloccante.
+ */
+public interface ReactiveWalletService {
+
+    Uni<WalletResult> reserveFunds(String userId, long amountCents, String roundId, String transactionId);
+
+    /**
+     * Riserva i fondi di più scommesse con una sola operazione verso lo storage.
+     *
+     * @return Esito e saldo risultante di ogni prenotazione, nello stesso ordine
+     */
+    Uni<List<WalletResult>> reserveFunds(List<WalletReservation> reservations);
+
+    Uni<WalletResult> creditWinnings(String userId, long amountCents, String roundId, String transactionId);
+
+    /**
+     * Accredita più vincite con una sola operazione verso lo storage.
+     *
+     * @return Esito e saldo risultante di ogni accredito, nello stesso ordine
+     */
+    Uni<List<WalletResult>> creditWinnings(List<WalletCredit> credits);
+
+    Uni<WalletResult> refundBet(String userId, long amountCents, String roundId, String transactionId);
+
+    Uni<WalletResult> refill(String userId, long balanceCents, String transactionId);
+
+    Uni<Long> getBalanceCents(String userId);
+
+    /**
+     * Istante prima del quale ogni mutazione confermata è già nel {@link WalletJournal}.
+     * I motori che scrivono la voce insieme al saldo sono sempre allineati.
+     */
+    default long journaledBeforeMillis() {
+        return Long.MAX_VALUE;
+    }
+}
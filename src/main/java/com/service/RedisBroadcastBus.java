@@ -0,0 +1,173 @@
+package com.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.pubsub.PubSubCommands;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bus multi-nodo su Redis Pub/Sub. Gli eventi in coda vengono raggruppati in un unico
+ * PUBLISH per batch (tutto ciò che si accumula mentre il publish precedente è in volo)
+ * e ogni evento porta l'epoca del leader e un numero di sequenza per stanza ed epoca, così i nodi
+ * rilevano eventuali buchi senza scambiare un cambio di leader per una perdita di eventi.
+ * Formato del batch: per ogni evento "room:epoca:seq:lunghezza:messaggio", concatenati.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "game.broadcast.bus", stringValue = "redis")
+public class RedisBroadcastBus implements BroadcastBus {
+
+    private static final Logger LOG = Logger.getLogger(RedisBroadcastBus.class);
+    private static final String CHANNEL = "game:events";
+    private static final int MAX_BATCH = 256;
+
+    private record Envelope(String roomId, long epoch, long sequence, String message) {
+    }
+
+    private record Position(long epoch, long sequence) {
+    }
+
+    private final PubSubCommands<String> pubSubCommands;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final BroadcastSequencer sequencer = new BroadcastSequencer();
+    private final Map<String, Position> lastReceived = new ConcurrentHashMap<>();
+    private final Queue<Envelope> outbox = new ConcurrentLinkedQueue<>();
+    private final Counter sequenceGaps;
+    private final DistributionSummary batchSize;
+
+    private volatile boolean running;
+    private Thread publisher;
+    private PubSubCommands.RedisSubscriber subscriber;
+
+    @Inject
+    public RedisBroadcastBus(RedisDataSource ds, MeterRegistry meterRegistry) {
+        this.pubSubCommands = ds.pubsub(String.class);
+        this.sequenceGaps = meterRegistry.counter("broadcast.sequence.gaps");
+        this.batchSize = meterRegistry.summary("broadcast.batch.size");
+    }
+
+    @PostConstruct
+    void init() {
+        subscriber = pubSubCommands.subscribe(CHANNEL, this::onBatch);
+        running = true;
+        publisher = Thread.ofPlatform().name("broadcast-publisher").daemon(true).start(this::publishLoop);
+    }
+
+    @PreDestroy
+    void close() {
+        running = false;
+        LockSupport.unpark(publisher);
+        if (subscriber != null) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    @Override
+    public void publish(String roomId, long epoch, String message) {
+        outbox.add(new Envelope(roomId, epoch, sequencer.next(roomId, epoch), message));
+        LockSupport.unpark(publisher);
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    private void publishLoop() {
+        StringBuilder batch = new StringBuilder(4096);
+        while (running || !outbox.isEmpty()) {
+            Envelope envelope = outbox.poll();
+            if (envelope == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            batch.setLength(0);
+            int count = 0;
+            while (envelope != null) {
+                batch.append(envelope.roomId()).append(':')
+                        .append(envelope.epoch()).append(':')
+                        .append(envelope.sequence()).append(':')
+                        .append(envelope.message().length()).append(':')
+                        .append(envelope.message());
+                if (++count == MAX_BATCH) {
+                    break;
+                }
+                envelope = outbox.poll();
+            }
+
+            try {
+                pubSubCommands.publish(CHANNEL, batch.toString());
+                batchSize.record(count);
+            } catch (Exception e) {
+                LOG.error("Errore publish di " + count + " eventi sul bus", e);
+            }
+        }
+    }
+
+    private void onBatch(String payload) {
+        int pos = 0;
+        try {
+            while (pos < payload.length()) {
+                int roomEnd = payload.indexOf(':', pos);
+                int epochEnd = payload.indexOf(':', roomEnd + 1);
+                int seqEnd = payload.indexOf(':', epochEnd + 1);
+                int lenEnd = payload.indexOf(':', seqEnd + 1);
+                String roomId = payload.substring(pos, roomEnd);
+                long epoch = Long.parseLong(payload, roomEnd + 1, epochEnd, 10);
+                long sequence = Long.parseLong(payload, epochEnd + 1, seqEnd, 10);
+                int length = Integer.parseInt(payload, seqEnd + 1, lenEnd, 10);
+                String message = payload.substring(lenEnd + 1, lenEnd + 1 + length);
+                pos = lenEnd + 1 + length;
+
+                trackSequence(roomId, epoch, sequence);
+                for (Listener listener : listeners) {
+                    listener.onMessage(roomId, epoch, sequence, message);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Batch di eventi non valido ricevuto dal bus", e);
+        }
+    }
+
+    /**
+     * Conta i buchi solo all'interno della stessa epoca: un'epoca più alta è un nuovo leader e riparte
+     * da capo, gli eventi di epoche superate (o senza sequenza) vengono consegnati senza controlli.
+     */
+    private void trackSequence(String roomId, long epoch, long sequence) {
+        if (sequence == 0) {
+            return;
+        }
+        Position previous = lastReceived.get(roomId);
+        if (previous != null && epoch < previous.epoch()) {
+            return;
+        }
+        lastReceived.put(roomId, new Position(epoch, sequence));
+        if (previous == null || epoch > previous.epoch()) {
+            if (previous != null) {
+                LOG.info("Nuova epoca di leadership sul bus per la stanza " + roomId + ": " + previous.epoch()
+                        + " -> " + epoch);
+            }
+            return;
+        }
+        if (sequence > previous.sequence() + 1) {
+            sequenceGaps.increment(sequence - previous.sequence() - 1);
+            LOG.debug("Buco di sequenza sul bus per la stanza " + roomId + ": " + previous.sequence() + " -> "
+                    + sequence);
+        }
+    }
+}
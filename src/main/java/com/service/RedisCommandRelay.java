@@ -0,0 +1,181 @@
+package com.service;
+
+import com.dto.CashOutResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.pubsub.ReactivePubSubCommands;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inoltro multi-nodo su Redis Pub/Sub. Il comando viene pubblicato su {@value #CHANNEL} e lo esegue
+ * solo il nodo che in quel momento guida la stanza; l'esito torna sul canale di risposta del nodo
+ * mittente. Senza risposta entro {@value #REPLY_TIMEOUT_MS} ms il comando fallisce lato gateway:
+ * il leader lo porta comunque a termine (o lo annulla con i rimborsi del caso).
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "game.broadcast.bus", stringValue = "redis")
+public class RedisCommandRelay implements CommandRelay {
+
+    private static final Logger LOG = Logger.getLogger(RedisCommandRelay.class);
+    private static final String CHANNEL = "game:commands";
+    private static final String REPLY_CHANNEL_PREFIX = "game:replies:";
+    private static final long REPLY_TIMEOUT_MS = 5000;
+
+    private static final String PLACE = "place";
+    private static final String CASHOUT = "cashout";
+    private static final String CANCEL = "cancel";
+
+    record Command(String id, String replyTo, String type, String room, String userId, String username,
+            double amount, double autoCashout, int index, String nonce, boolean announce) {
+    }
+
+    record Reply(String id, String error, boolean invalidArgument, CashOutResult result) {
+    }
+
+    private final ReactivePubSubCommands<String> pubSubCommands;
+    private final Instance<BettingService> bettingService;
+    private final Instance<GameEngineService> gameEngine;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, CompletableFuture<Reply>> pending = new ConcurrentHashMap<>();
+    private final String replyChannel = REPLY_CHANNEL_PREFIX + UUID.randomUUID();
+
+    private ReactivePubSubCommands.ReactiveRedisSubscriber commandSubscriber;
+    private ReactivePubSubCommands.ReactiveRedisSubscriber replySubscriber;
+
+    @Inject
+    public RedisCommandRelay(ReactiveRedisDataSource ds, Instance<BettingService> bettingService,
+            Instance<GameEngineService> gameEngine) {
+        this.pubSubCommands = ds.pubsub(String.class);
+        this.bettingService = bettingService;
+        this.gameEngine = gameEngine;
+    }
+
+    @PostConstruct
+    void init() {
+        commandSubscriber = pubSubCommands.subscribe(CHANNEL, this::onCommand).await().indefinitely();
+        replySubscriber = pubSubCommands.subscribe(replyChannel, this::onReply).await().indefinitely();
+    }
+
+    @PreDestroy
+    void close() {
+        if (commandSubscriber != null) {
+            commandSubscriber.unsubscribe().await().indefinitely();
+        }
+        if (replySubscriber != null) {
+            replySubscriber.unsubscribe().await().indefinitely();
+        }
+        pending.values().forEach(future -> future.completeExceptionally(
+                new IllegalStateException("Servizio in arresto, riprova.")));
+    }
+
+    @Override
+    public Uni<Void> placeBet(String roomId, String userId, String username, double amount, double autoCashout,
+            int index, String nonce, boolean announce) {
+        return send(new Command(UUID.randomUUID().toString(), replyChannel, PLACE, roomId, userId, username,
+                amount, autoCashout, index, nonce, announce)).replaceWithVoid();
+    }
+
+    @Override
+    public Uni<CashOutResult> cashOut(String roomId, String userId, int index) {
+        return send(new Command(UUID.randomUUID().toString(), replyChannel, CASHOUT, roomId, userId, null,
+                0, 0, index, null, false)).map(Reply::result);
+    }
+
+    @Override
+    public Uni<Void> cancelBet(String roomId, String userId, int index) {
+        return send(new Command(UUID.randomUUID().toString(), replyChannel, CANCEL, roomId, userId, null,
+                0, 0, index, null, false)).replaceWithVoid();
+    }
+
+    private Uni<Reply> send(Command command) {
+        return Uni.createFrom().deferred(() -> {
+            CompletableFuture<Reply> reply = new CompletableFuture<>();
+            pending.put(command.id(), reply);
+            return pubSubCommands.publish(CHANNEL, objectMapper.writeValueAsString(command))
+                    .chain(() -> Uni.createFrom().completionStage(reply))
+                    .ifNoItem().after(Duration.ofMillis(REPLY_TIMEOUT_MS))
+                    .failWith(() -> new IllegalStateException(
+                            "Il tavolo non ha confermato in tempo, verifica il saldo."))
+                    .onTermination().invoke(() -> pending.remove(command.id()));
+        }).map(reply -> {
+            if (reply.error() == null) {
+                return reply;
+            }
+            throw reply.invalidArgument()
+                    ? new IllegalArgumentException(reply.error())
+                    : new IllegalStateException(reply.error());
+        });
+    }
+
+    /**
+     * Esegue il comando solo se questo nodo guida la stanza; gli altri nodi lo ignorano.
+     */
+    private void onCommand(String payload) {
+        Command command;
+        GameRoom room;
+        try {
+            command = objectMapper.readValue(payload, Command.class);
+            room = gameEngine.get().getRoom(command.room());
+        } catch (Exception e) {
+            LOG.error("Comando inoltrato non valido: " + payload, e);
+            return;
+        }
+        if (!room.isLeader()) {
+            return;
+        }
+        execute(command).subscribe().with(
+                result -> reply(command, new Reply(command.id(), null, false, result)),
+                e -> reply(command, new Reply(command.id(), e.getMessage() != null ? e.getMessage() : "Errore interno",
+                        e instanceof IllegalArgumentException, null)));
+    }
+
+    private Uni<CashOutResult> execute(Command command) {
+        BettingService service = bettingService.get();
+        return switch (command.type()) {
+            case PLACE -> service.executePlaceBet(command.room(), command.userId(), command.username(),
+                    command.amount(), command.autoCashout(), command.index(), command.nonce(), command.announce())
+                    .replaceWith((CashOutResult) null);
+            case CASHOUT -> service.executeCashOut(command.room(), command.userId(), command.index());
+            case CANCEL -> service.executeCancelBet(command.room(), command.userId(), command.index())
+                    .replaceWith((CashOutResult) null);
+            default -> Uni.createFrom().failure(new IllegalArgumentException("Comando sconosciuto: " + command.type()));
+        };
+    }
+
+    private void reply(Command command, Reply reply) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(reply);
+        } catch (Exception e) {
+            LOG.error("Serializzazione della risposta al comando " + command.id() + " fallita", e);
+            return;
+        }
+        pubSubCommands.publish(command.replyTo(), payload).subscribe().with(v -> {
+        }, e -> LOG.error("Invio della risposta al comando " + command.id() + " fallito", e));
+    }
+
+    private void onReply(String payload) {
+        try {
+            Reply reply = objectMapper.readValue(payload, Reply.class);
+            CompletableFuture<Reply> future = pending.get(reply.id());
+            if (future != null) {
+                future.complete(reply);
+            }
+        } catch (Exception e) {
+            LOG.error("Risposta inoltrata non valida: " + payload, e);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.service;
 
-import com.model.Player;
+import com.dto.WalletResult;
 import com.repository.PlayerRepository;
 import io.quarkus.scheduler.Scheduled;
 import io.smallrye.common.annotation.RunOnVirtualThread;
@@ -16,12 +16,15 @@ public class RefillScheduler {
     private static final Logger LOG = Logger.getLogger(RefillScheduler.class);
 
     private static final long REFILL_DELAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long REFILL_BALANCE_CENTS = 500_00;
 
     private final PlayerRepository playerRepository;
+    private final WalletService walletService;
 
     @Inject
-    public RefillScheduler(PlayerRepository playerRepository) {
+    public RefillScheduler(PlayerRepository playerRepository, WalletService walletService) {
         this.playerRepository = playerRepository;
+        this.walletService = walletService;
     }
 
     @Scheduled(every = "5m")
@@ -42,17 +45,13 @@ public class RefillScheduler {
 
         for (String playerId : eligiblePlayerIds) {
             try {
-                Player player = playerRepository.findById(playerId);
-                if (player != null) {
-                    if (player.getBalance() <= 0) {
-                        player.setBalance(500.0);
-                        playerRepository.save(player);
-                        LOG.info("REFILLED bucket for user: " + player.getUsername());
-                    }
-                    playerRepository.clearZeroBalance(playerId);
-                } else {
-                    playerRepository.clearZeroBalance(playerId);
+                // Una sola ricarica per giocatore per finestra di attesa, anche se il job riparte
+                String txId = "refill:" + playerId + ":" + (now / REFILL_DELAY_MS);
+                WalletResult refilled = walletService.refill(playerId, REFILL_BALANCE_CENTS, txId);
+                if (refilled.success()) {
+                    LOG.info("REFILLED bucket for user: " + playerId);
                 }
+                playerRepository.clearZeroBalance(playerId);
             } catch (Exception e) {
                 LOG.error("Error processing refill for player: " + playerId, e);
             }
@@ -0,0 +1,140 @@
+package com.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * Clock ad alta risoluzione che guida il game loop su un thread dedicato.
+ * Le scadenze sono calcolate come inizio + n * periodo su System.nanoTime(),
+ * quindi il ritardo di un tick non si accumula su quelli successivi (drift correction).
+ * Tra un tick e l'altro il thread si sveglia anche per i timer della {@link TimerWheel},
+ * che scattano al loro istante indipendentemente dal periodo dei tick.
+ */
+public class RoundClock implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(RoundClock.class);
+    private static final long TIMER_RESOLUTION_MS = 1;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    private final String name;
+    private final long periodNanos;
+    private final LongConsumer onTick;
+    private final Timer latenessTimer;
+    private final Counter skippedTicks;
+
+    private final long anchorNanos;
+    private final long anchorEpochMillis;
+    private final TimerWheel timerWheel;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public RoundClock(String name, long periodMillis, LongConsumer onTick, Timer latenessTimer,
+            Counter skippedTicks) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Periodo del tick non valido: " + periodMillis);
+        }
+        this.name = name;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.onTick = onTick;
+        this.latenessTimer = latenessTimer;
+        this.skippedTicks = skippedTicks;
+        this.anchorNanos = System.nanoTime();
+        this.anchorEpochMillis = System.currentTimeMillis();
+        this.timerWheel = new TimerWheel(anchorNanos, TIMER_RESOLUTION_MS, TIMER_WHEEL_SIZE);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform()
+                .name(name)
+                .daemon(true)
+                .priority(Thread.MAX_PRIORITY)
+                .start(this);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.NANOSECONDS.toMillis(periodNanos) * 4);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Tempo in millisecondi epoch derivato dal clock monotono: non salta se
+     * l'orologio di sistema viene corretto durante un round.
+     */
+    public long currentTimeMillis() {
+        return toEpochMillis(System.nanoTime());
+    }
+
+    public long toEpochMillis(long nanoTime) {
+        return anchorEpochMillis + TimeUnit.NANOSECONDS.toMillis(nanoTime - anchorNanos);
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * Pianifica un'azione all'istante indicato (System.nanoTime()).
+     * Va chiamato dal thread del clock, cioè dall'interno di un tick o di un altro timer.
+     */
+    public TimerWheel.Timeout schedule(long deadlineNanos, Runnable task) {
+        return timerWheel.schedule(deadlineNanos, task);
+    }
+
+    public void cancelTimers() {
+        timerWheel.clear();
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + periodNanos;
+
+        while (running) {
+            long now = System.nanoTime();
+            while (running && now < deadline) {
+                long wakeUp = Math.min(deadline, timerWheel.nextExpiryNanos());
+                if (now < wakeUp) {
+                    LockSupport.parkNanos(wakeUp - now);
+                    now = System.nanoTime();
+                }
+                timerWheel.advance(now);
+            }
+            if (!running) {
+                break;
+            }
+
+            latenessTimer.record(now - deadline, TimeUnit.NANOSECONDS);
+
+            try {
+                onTick.accept(now);
+            } catch (Exception e) {
+                LOG.error("Errore nel tick del clock " + name, e);
+            }
+
+            deadline += periodNanos;
+            long behind = System.nanoTime() - deadline;
+            if (behind > periodNanos) {
+                long missed = behind / periodNanos;
+                deadline += missed * periodNanos;
+                skippedTicks.increment(missed);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.service;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer dei prossimi round di una stanza, già estratti dalla catena e calcolati.
+ * Il ricaricamento avviene in background, così l'avvio di un round non attende
+ * né Redis né gli hash: il clock non estrae mai dalla catena. Estrarre consuma i seed, per cui il buffer
+ * va riempito solo dal leader della stanza; quando la leadership cambia ({@link #clear}) i round non giocati
+ * tornano in testa alla catena. Ricariche e restituzioni passano tutte dall'executor a thread singolo,
+ * quindi avvengono nell'ordine della catena.
+ */
+public class RoundLookahead {
+
+    private static final Logger LOG = Logger.getLogger(RoundLookahead.class);
+    private static final long AWAIT_TIMEOUT_MS = 10_000;
+
+    private final String roomId;
+    private final int capacity;
+    private final ProvablyFairService provablyFairService;
+    private final Executor executor;
+
+    private final Queue<PreparedRound> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    // Cambia ad ogni clear(): una ricarica partita prima non deposita più i suoi round
+    private final AtomicLong generation = new AtomicLong();
+    // Generazione per cui è in coda una ricarica (-1 nessuna)
+    private final AtomicLong refillQueued = new AtomicLong(-1);
+    private boolean starved;
+
+    RoundLookahead(String roomId, int capacity, ProvablyFairService provablyFairService, Executor executor) {
+        this.roomId = roomId;
+        this.capacity = capacity;
+        this.provablyFairService = provablyFairService;
+        this.executor = executor;
+    }
+
+    /**
+     * Prossimo round dal buffer, senza I/O; chiamato dal clock. Se il buffer è vuoto (ricarica in ritardo
+     * o Redis lento) restituisce null e il chiamante riprova al tick successivo.
+     */
+    public PreparedRound next() {
+        PreparedRound round = buffer.poll();
+        if (round != null) {
+            size.decrementAndGet();
+            starved = false;
+        } else if (!starved) {
+            starved = true;
+            LOG.warn("[" + roomId + "] Buffer dei round vuoto, avvio del round rimandato");
+        }
+        refill();
+        return round;
+    }
+
+    /**
+     * Come {@link #next}, ma attende le ricariche in coda: per il subentro, fuori dal clock.
+     */
+    PreparedRound awaitNext() {
+        refill();
+        try {
+            // L'executor è a thread singolo: quando questo task gira le ricariche precedenti sono concluse
+            CompletableFuture.runAsync(() -> {
+            }, executor).get(AWAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.warn("[" + roomId + "] Ricarica del buffer dei round non conclusa in tempo");
+        }
+        PreparedRound round = buffer.poll();
+        if (round != null) {
+            size.decrementAndGet();
+        }
+        refill();
+        return round;
+    }
+
+    public void refill() {
+        long startedIn = generation.get();
+        if (size.get() >= capacity || refillQueued.getAndSet(startedIn) == startedIn) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                int missing = capacity - size.get();
+                if (missing > 0) {
+                    deposit(startedIn, provablyFairService.prepareRounds(roomId, missing));
+                }
+            } catch (Exception e) {
+                LOG.error("[" + roomId + "] Ricarica del buffer dei round fallita", e);
+            } finally {
+                refillQueued.compareAndSet(startedIn, -1);
+            }
+        });
+    }
+
+    private void deposit(long startedIn, List<PreparedRound> rounds) {
+        synchronized (buffer) {
+            if (generation.get() == startedIn) {
+                rounds.forEach(buffer::add);
+                size.addAndGet(rounds.size());
+                return;
+            }
+        }
+        LOG.warn("[" + roomId + "] Ricarica superata da un cambio di leadership, round restituiti alla catena");
+        provablyFairService.returnRounds(roomId, rounds);
+    }
+
+    /**
+     * Svuota il buffer al passaggio di leadership e restituisce i round alla catena: vengono estratti
+     * di nuovo, nello stesso ordine, dal prossimo leader.
+     */
+    public void clear() {
+        List<PreparedRound> unused = new ArrayList<>();
+        synchronized (buffer) {
+            generation.incrementAndGet();
+            PreparedRound round;
+            while ((round = buffer.poll()) != null) {
+                unused.add(round);
+            }
+            size.set(0);
+        }
+        giveBack(unused);
+    }
+
+    /**
+     * Restituisce alla catena round estratti ma non giocati, dopo le ricariche già in coda.
+     */
+    void giveBack(List<PreparedRound> rounds) {
+        if (rounds.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                provablyFairService.returnRounds(roomId, rounds);
+            } catch (Exception e) {
+                LOG.error("[" + roomId + "] Restituzione di " + rounds.size() + " round alla catena fallita", e);
+            }
+        });
+    }
+
+    public int getBuffered() {
+        return size.get();
+    }
+}
@@ -0,0 +1,141 @@
+package com.service;
+
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel per eventi a istante noto (crash, auto-cashout).
+ * Non è thread-safe: va usato solo dal thread del {@link RoundClock} che lo possiede.
+ */
+public class TimerWheel {
+
+    private static final Logger LOG = Logger.getLogger(TimerWheel.class);
+
+    private final long startNanos;
+    private final long resolutionNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+
+    private long currentTick;
+    private int pending;
+
+    public TimerWheel(long startNanos, long resolutionMillis, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("La dimensione della ruota deve essere una potenza di 2: " + wheelSize);
+        }
+        this.startNanos = startNanos;
+        this.resolutionNanos = TimeUnit.MILLISECONDS.toNanos(resolutionMillis);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+    }
+
+    public Timeout schedule(long deadlineNanos, Runnable task) {
+        long deadlineTick = Math.max(ceilDiv(deadlineNanos - startNanos, resolutionNanos), currentTick);
+        Timeout timeout = new Timeout(task, (deadlineTick - currentTick) / buckets.length);
+        int index = (int) (deadlineTick & mask);
+        timeout.next = buckets[index];
+        buckets[index] = timeout;
+        pending++;
+        return timeout;
+    }
+
+    /**
+     * Esegue tutti i timer scaduti fino all'istante indicato.
+     */
+    public void advance(long nowNanos) {
+        long targetTick = Math.floorDiv(nowNanos - startNanos, resolutionNanos);
+        while (pending > 0 && currentTick <= targetTick) {
+            int index = (int) (currentTick & mask);
+            Timeout expired = null;
+            Timeout kept = null;
+            for (Timeout t = buckets[index]; t != null;) {
+                Timeout next = t.next;
+                if (t.cancelled) {
+                    pending--;
+                } else if (t.remainingRounds <= 0) {
+                    pending--;
+                    t.next = expired;
+                    expired = t;
+                } else {
+                    t.remainingRounds--;
+                    t.next = kept;
+                    kept = t;
+                }
+                t = next;
+            }
+            buckets[index] = kept;
+            currentTick++;
+
+            for (Timeout t = expired; t != null; t = t.next) {
+                if (!t.cancelled) {
+                    try {
+                        t.task.run();
+                    } catch (Exception e) {
+                        LOG.error("Errore nell'esecuzione di un timer", e);
+                    }
+                }
+            }
+        }
+        if (pending == 0 && currentTick <= targetTick) {
+            currentTick = targetTick + 1;
+        }
+    }
+
+    /**
+     * Istante (nanoTime) del prossimo slot da controllare, o Long.MAX_VALUE se non ci sono timer.
+     * Se nessun timer scade entro un giro di ruota, restituisce la fine del giro.
+     */
+    public long nextExpiryNanos() {
+        if (pending == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            long tick = currentTick + i;
+            for (Timeout t = buckets[(int) (tick & mask)]; t != null; t = t.next) {
+                if (!t.cancelled && t.remainingRounds <= 0) {
+                    return startNanos + tick * resolutionNanos;
+                }
+            }
+        }
+        return startNanos + (currentTick + buckets.length) * resolutionNanos;
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            for (Timeout t = buckets[i]; t != null; t = t.next) {
+                t.cancelled = true;
+            }
+            buckets[i] = null;
+        }
+        pending = 0;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    public static final class Timeout {
+        private final Runnable task;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+        private Timeout next;
+
+        private Timeout(Runnable task, long remainingRounds) {
+            this.task = task;
+            this.remainingRounds = remainingRounds;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,771 @@
+package com.service;
+
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+import com.repository.PlayerBalances;
+import com.repository.RedisKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.arc.properties.IfBuildProperty;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.mutiny.redis.client.Response;
+import io.vertx.redis.client.Command;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wallet con i saldi in memoria, alternativo agli script Lua di {@link LocalRedisWalletService}
+ * (build con game.wallet.engine=wal). I conti sono divisi in shard per userId, ciascuno col proprio lock;
+ * ogni mutazione viene accodata al write-ahead log nell'ordine in cui è applicata e l'esito torna
+ * al chiamante solo dopo l'fsync del batch in cui è confluita (group commit).
+ * I saldi confermati vengono poi replicati in modo asincrono su player:{id}, sull'indice dei saldi a zero
+ * e sui ledger wallet:ledger:{id}:*, così le letture dirette su Redis e un ritorno al wallet Lua restano coerenti;
+ * con la stessa replica ogni mutazione arriva anche al {@link WalletJournal}.
+ * All'avvio il log viene rigiocato e riscritto compatto; i conti assenti dal log vengono caricati
+ * da Redis al primo accesso, insieme al ledger Redis del round (transazioni processate da un altro
+ * wallet). Allo shutdown pulito, con tutto replicato, il log conserva solo le transazioni: al riavvio
+ * i saldi si rileggono da Redis, che resta la fonte di verità tra un'esecuzione e l'altra.
+ * Un solo nodo alla volta può servire il wallet: il lock {@value #OWNER_KEY} viene preso all'avvio
+ * (o l'avvio fallisce) e rinnovato dalla replica; se va perso, o scade senza rinnovo perché Redis non
+ * risponde, il wallet rifiuta le mutazioni. Se nel frattempo
+ * un altro log ha scritto su Redis ({@value #WRITER_KEY}), i saldi del log locale vengono scartati.
+ * Un errore di scrittura su disco ferma il wallet: le mutazioni successive vengono rifiutate
+ * finché un riavvio non riallinea la memoria al log.
+ * Oltre {@code game.wallet.wal.compact-bytes} il log viene compattato anche a runtime; fsync e dimensione
+ * dei batch sono esportati come wallet.wal.fsync e wallet.wal.batch.size.
+ */
+@ApplicationScoped
+@IfBuildProperty(name = "game.wallet.engine", stringValue = "wal")
+public class WalWalletService implements ReactiveWalletService {
+
+    private static final Logger LOG = Logger.getLogger(WalWalletService.class);
+    private static final long PROCESSED_TX_TTL_SECONDS = 86400; // 24 hours
+    private static final long PROCESSED_TX_TTL_MS = PROCESSED_TX_TTL_SECONDS * 1000;
+    private static final long ZERO_BALANCE_THRESHOLD_CENTS = 10;
+    private static final int SHARDS = 64;
+    private static final int MAX_BATCH = 4096;
+    private static final long DURABILITY_TIMEOUT_MS = 5000;
+    private static final long SHUTDOWN_FLUSH_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 2000;
+    private static final String OWNER_KEY = "wallet:wal:owner";
+    static final String WRITER_KEY = "wallet:wal:writer";
+    private static final long OWNER_TTL_MS = 30000;
+    private static final long OWNER_RENEW_MS = OWNER_TTL_MS / 3;
+
+    // KEYS[1] = wallet:wal:owner, ARGV[1] = id del log, ARGV[2] = ttl (ms)
+    private static final String OWNER_SCRIPT = """
+            if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+                return 1
+            end
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                redis.call('PEXPIRE', KEYS[1], ARGV[2])
+                return 1
+            end
+            return 0
+            """;
+
+    private static final String OWNER_RELEASE_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """;
+
+    private enum Operation {
+        RESERVE, CREDIT, REFILL
+    }
+
+    private enum Status {
+        OK, PROCESSED, INSUFFICIENT_FUNDS, NOT_EMPTY, USER_NOT_FOUND
+    }
+
+    private static final class Account {
+        long balanceCents;
+        // false per i conti noti solo dalle transazioni del log: il saldo va letto da Redis
+        boolean balanceKnown;
+        // saldo letto da Redis: il ledger Redis di ogni round va unito alle transazioni prima di applicare
+        boolean fromRedis;
+        // transactionId -> istante di elaborazione (ms), valido per PROCESSED_TX_TTL_MS
+        final Map<String, Long> transactions = new HashMap<>();
+        // round il cui ledger Redis è già stato unito -> istante (ms)
+        final Map<String, Long> syncedRounds = new HashMap<>();
+
+        Account(long balanceCents, boolean balanceKnown) {
+            this.balanceCents = balanceCents;
+            this.balanceKnown = balanceKnown;
+        }
+
+        boolean isProcessed(String transactionId, long now) {
+            Long processedAt = transactions.get(transactionId);
+            return processedAt != null && now - processedAt < PROCESSED_TX_TTL_MS;
+        }
+    }
+
+    private static final class Shard {
+        final Map<String, Account> accounts = new HashMap<>();
+    }
+
+    private record Pending(WalletLog.Entry entry, CompletableFuture<Void> durable) {
+    }
+
+    private record Applied(Status status, WalletResult result, CompletableFuture<Void> durable) {
+    }
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final WalletLog log;
+    private final String logPath;
+    private final String logId;
+    private final long compactBytes;
+    private final PlayerBalances playerBalances;
+    private final Redis redis;
+    private final WalletJournal journal;
+    private final boolean cluster;
+    private final Queue<Pending> logQueue = new ConcurrentLinkedQueue<>();
+    private final Map<String, Long> dirtyBalances = new ConcurrentHashMap<>();
+    private final Queue<WalletLog.Entry> dirtyTransactions = new ConcurrentLinkedQueue<>();
+    private final Timer fsync;
+    private final DistributionSummary batchSize;
+    private final Counter compactions;
+    private final Counter replicationRetries;
+
+    private volatile boolean running;
+    private volatile IOException failure;
+    private volatile boolean ownershipLost;
+    private volatile long ownedUntilMillis;
+    private volatile long journaledBeforeMillis;
+    private long lastOwnerRenewMillis;
+    private long nextCompactionBytes;
+    private Thread logWriter;
+    private Thread replicator;
+
+    @Inject
+    public WalWalletService(PlayerBalances playerBalances, RedisDataSource ds, WalletJournal journal,
+            MeterRegistry meterRegistry,
+            @ConfigProperty(name = "game.wallet.wal.path", defaultValue = "data/wallet.wal") String logPath,
+            @ConfigProperty(name = "game.wallet.wal.compact-bytes", defaultValue = "67108864") long compactBytes,
+            @ConfigProperty(name = "quarkus.redis.client-type", defaultValue = "standalone") String clientType) {
+        this(ds.getRedis(), playerBalances, journal, meterRegistry, logPath, compactBytes,
+                "cluster".equalsIgnoreCase(clientType));
+    }
+
+    WalWalletService(Redis redis, PlayerBalances playerBalances, WalletJournal journal, MeterRegistry meterRegistry,
+            String logPath, long compactBytes, boolean cluster) {
+        this.playerBalances = playerBalances;
+        this.redis = redis;
+        this.journal = journal;
+        this.cluster = cluster;
+        this.logPath = logPath;
+        this.log = new WalletLog(Path.of(logPath));
+        this.logId = readLogId(Path.of(logPath + ".id"));
+        this.compactBytes = Math.max(compactBytes, 1024 * 1024);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+        this.fsync = meterRegistry.timer("wallet.wal.fsync");
+        this.batchSize = meterRegistry.summary("wallet.wal.batch.size");
+        this.compactions = meterRegistry.counter("wallet.wal.compactions");
+        this.replicationRetries = meterRegistry.counter("wallet.replication.retries");
+        meterRegistry.gauge("wallet.replication.pending", dirtyBalances, Map::size);
+    }
+
+    @PostConstruct
+    void init() {
+        acquireOwnership();
+        long records;
+        try {
+            records = log.replay(this::restore);
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossibile aprire il wallet log " + logPath, e);
+        }
+        Response storedWriter = redis.send(Request.cmd(Command.GET).arg(WRITER_KEY)).await().indefinitely();
+        String writer = storedWriter != null ? storedWriter.toString() : null;
+        boolean stale = writer != null && !writer.equals(logId);
+        int accounts = 0;
+        int discarded = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Map.Entry<String, Account> entry : shard.accounts.entrySet()) {
+                    Account account = entry.getValue();
+                    if (!account.balanceKnown) {
+                        continue;
+                    }
+                    if (stale) {
+                        // Un altro wallet ha servito questi conti dopo l'ultimo record del log
+                        account.balanceKnown = false;
+                        discarded++;
+                        continue;
+                    }
+                    accounts++;
+                    // Redis potrebbe non aver ricevuto gli ultimi saldi prima di un arresto non pulito
+                    dirtyBalances.put(entry.getKey(), account.balanceCents);
+                }
+            }
+        }
+        if (discarded > 0) {
+            LOG.error("CRITICAL: Il wallet log " + logPath + " è stato superato da un altro wallet (" + writer
+                    + "): " + discarded + " saldi locali scartati, riletti da Redis");
+        }
+        redis.send(Request.cmd(Command.SET).arg(WRITER_KEY).arg(logId)).await().indefinitely();
+        try {
+            compact(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossibile compattare il wallet log " + logPath, e);
+        }
+        LOG.info("Wallet log rigiocato: " + records + " record, " + accounts + " saldi da replicare");
+
+        // Il replay di un log grande può durare più del lock
+        acquireOwnership();
+        running = true;
+        logWriter = Thread.ofPlatform().name("wallet-wal").daemon(true).start(this::writeLoop);
+        replicator = Thread.ofPlatform().name("wallet-replicator").daemon(true).start(this::replicationLoop);
+    }
+
+    @PreDestroy
+    void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(logWriter);
+        LockSupport.unpark(replicator);
+        try {
+            logWriter.join(SHUTDOWN_FLUSH_MS);
+            replicator.join(SHUTDOWN_FLUSH_MS);
+            // Una replica ancora in corso ha già tolto i suoi saldi da dirtyBalances senza averli confermati
+            if (!replicator.isAlive() && !logWriter.isAlive() && dirtyBalances.isEmpty()
+                    && dirtyTransactions.isEmpty() && failure == null) {
+                // Tutto replicato: al riavvio i saldi si rileggono da Redis, il log tiene solo l'idempotenza
+                compact(false);
+            }
+            log.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error("Chiusura del wallet log fallita", e);
+        }
+        if (!dirtyBalances.isEmpty()) {
+            LOG.warn("Shutdown con " + dirtyBalances.size() + " saldi non replicati su Redis (presenti nel log)");
+        }
+        try {
+            redis.send(Request.cmd(Command.EVAL).arg(OWNER_RELEASE_SCRIPT).arg(1).arg(OWNER_KEY).arg(logId))
+                    .await().atMost(Duration.ofSeconds(2));
+        } catch (Exception e) {
+            LOG.warn("Rilascio del lock del wallet fallito: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Identità del log locale, conservata accanto al log: resta la stessa ai riavvii del nodo.
+     */
+    private static String readLogId(Path idFile) {
+        try {
+            if (Files.exists(idFile)) {
+                return Files.readString(idFile).trim();
+            }
+            String id = UUID.randomUUID().toString();
+            if (idFile.getParent() != null) {
+                Files.createDirectories(idFile.getParent());
+            }
+            Files.writeString(idFile, id);
+            return id;
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossibile leggere l'identità del wallet log " + idFile, e);
+        }
+    }
+
+    private void acquireOwnership() {
+        if (!renewOwnership(System.currentTimeMillis())) {
+            throw new IllegalStateException("Il wallet WAL è già servito da un altro nodo (" + OWNER_KEY
+                    + "): il motore wal ammette un solo nodo, fermare l'altro o attendere "
+                    + OWNER_TTL_MS / 1000 + " s");
+        }
+    }
+
+    /**
+     * Prende o rinnova il lock del wallet.
+     *
+     * @return false se il lock appartiene a un altro nodo
+     */
+    private boolean renewOwnership(long now) {
+        Response owned = redis.send(Request.cmd(Command.EVAL).arg(OWNER_SCRIPT).arg(1).arg(OWNER_KEY).arg(logId)
+                .arg(OWNER_TTL_MS)).await().atMost(Duration.ofMillis(OWNER_RENEW_MS));
+        lastOwnerRenewMillis = now;
+        if (owned != null && owned.toLong() == 1L) {
+            ownedUntilMillis = now + OWNER_TTL_MS;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Chiamato dal thread di replica: se il lock passa a un altro nodo, o non si riesce a rinnovarlo
+     * prima della scadenza, il wallet si ferma per non servire saldi che un altro nodo sta modificando.
+     */
+    private void checkOwnership() {
+        long now = System.currentTimeMillis();
+        if (ownershipLost || now - lastOwnerRenewMillis < OWNER_RENEW_MS) {
+            return;
+        }
+        boolean owned;
+        try {
+            owned = renewOwnership(now);
+        } catch (Exception e) {
+            LOG.warn("Rinnovo del lock del wallet fallito: " + e.getMessage());
+            owned = now < ownedUntilMillis;
+        }
+        if (!owned) {
+            ownershipLost = true;
+            LOG.error("CRITICAL: Lock " + OWNER_KEY + " perso, wallet WAL fermo fino al riavvio");
+        }
+    }
+
+    @Override
+    public Uni<WalletResult> reserveFunds(String userId, long amountCents, String roundId, String transactionId) {
+        return load(userId, roundId)
+                .map(loaded -> apply(Operation.RESERVE, WalletJournal.BET, userId, amountCents, roundId,
+                        transactionId))
+                .chain(applied -> complete(applied, userId, amountCents, "Fondi riservati (WAL)"));
+    }
+
+    @Override
+    public Uni<List<WalletResult>> reserveFunds(List<WalletReservation> reservations) {
+        Map<String, String> rounds = new HashMap<>();
+        reservations.forEach(reservation -> rounds.put(reservation.userId() + ":" + reservation.roundId(),
+                reservation.userId()));
+        return load(rounds).chain(loaded -> {
+            List<Uni<WalletResult>> results = new ArrayList<>(reservations.size());
+            for (WalletReservation reservation : reservations) {
+                Applied applied = apply(Operation.RESERVE, WalletJournal.BET, reservation.userId(),
+                        reservation.amountCents(), reservation.roundId(), reservation.transactionId());
+                results.add(complete(applied, reservation.userId(), reservation.amountCents(),
+                        "Fondi riservati (WAL batch)"));
+            }
+            return join(results);
+        });
+    }
+
+    @Override
+    public Uni<WalletResult> creditWinnings(String userId, long amountCents, String roundId, String transactionId) {
+        return load(userId, roundId)
+                .map(loaded -> apply(Operation.CREDIT, WalletJournal.WIN, userId, amountCents, roundId,
+                        transactionId))
+                .chain(applied -> complete(applied, userId, amountCents, "Vincita accreditata (WAL)"));
+    }
+
+    @Override
+    public Uni<List<WalletResult>> creditWinnings(List<WalletCredit> credits) {
+        Map<String, String> rounds = new HashMap<>();
+        credits.forEach(credit -> rounds.put(credit.userId() + ":" + credit.roundId(), credit.userId()));
+        return load(rounds).chain(loaded -> {
+            List<Uni<WalletResult>> results = new ArrayList<>(credits.size());
+            for (WalletCredit credit : credits) {
+                Applied applied = apply(Operation.CREDIT, WalletJournal.WIN, credit.userId(), credit.amountCents(),
+                        credit.roundId(), credit.transactionId());
+                results.add(complete(applied, credit.userId(), credit.amountCents(),
+                        "Vincita accreditata (WAL batch)"));
+            }
+            return join(results);
+        });
+    }
+
+    @Override
+    public Uni<WalletResult> refundBet(String userId, long amountCents, String roundId, String transactionId) {
+        return load(userId, roundId)
+                .map(loaded -> apply(Operation.CREDIT, WalletJournal.REFUND, userId, amountCents, roundId,
+                        transactionId))
+                .chain(applied -> complete(applied, userId, amountCents, "Rimborso effettuato (WAL)"));
+    }
+
+    @Override
+    public Uni<WalletResult> refill(String userId, long balanceCents, String transactionId) {
+        return load(userId, RedisKeys.REFILL_LEDGER)
+                .map(loaded -> apply(Operation.REFILL, WalletJournal.REFILL, userId, balanceCents,
+                        RedisKeys.REFILL_LEDGER, transactionId))
+                .chain(applied -> complete(applied, userId, balanceCents, "Saldo ricaricato (WAL)"));
+    }
+
+    @Override
+    public Uni<Long> getBalanceCents(String userId) {
+        return load(userId, null).map(loaded -> {
+            Shard shard = shardFor(userId);
+            synchronized (shard) {
+                Account account = shard.accounts.get(userId);
+                return account != null && account.balanceKnown ? account.balanceCents : 0L;
+            }
+        });
+    }
+
+    private Shard shardFor(String userId) {
+        return shards[Math.floorMod(userId.hashCode(), SHARDS)];
+    }
+
+    /**
+     * Porta in memoria il saldo da Redis se non è ancora noto e, per i conti letti da Redis, unisce
+     * alle transazioni il ledger Redis del round (roundId null: solo il saldo), così una transazione
+     * già processata da un altro wallet resta idempotente. Le letture avvengono fuori dal lock:
+     * se nel frattempo un'altra richiesta ha caricato (e magari modificato) il conto, vince quella.
+     */
+    private Uni<Void> load(String userId, String roundId) {
+        Shard shard = shardFor(userId);
+        boolean needBalance;
+        synchronized (shard) {
+            Account account = shard.accounts.get(userId);
+            needBalance = account == null || !account.balanceKnown;
+            if (!needBalance && (roundId == null || !account.fromRedis || account.syncedRounds.containsKey(roundId))) {
+                return Uni.createFrom().voidItem();
+            }
+        }
+        Uni<Long> balance = needBalance
+                ? playerBalances.findBalanceCents(userId)
+                : Uni.createFrom().nullItem();
+        Uni<Response> ledger = roundId != null
+                ? redis.send(Request.cmd(Command.HKEYS).arg(RedisKeys.walletLedger(userId, roundId)))
+                : Uni.createFrom().nullItem();
+        return Uni.combine().all().unis(balance, ledger).asTuple().invoke(loaded -> {
+            long now = System.currentTimeMillis();
+            synchronized (shard) {
+                Account account = shard.accounts.get(userId);
+                if (needBalance && loaded.getItem1() != null) {
+                    if (account == null) {
+                        account = new Account(loaded.getItem1(), true);
+                        shard.accounts.put(userId, account);
+                    }
+                    if (!account.balanceKnown) {
+                        account.balanceCents = loaded.getItem1();
+                        account.balanceKnown = true;
+                    }
+                    account.fromRedis = true;
+                }
+                if (account == null || !account.fromRedis || roundId == null
+                        || account.syncedRounds.putIfAbsent(roundId, now) != null || loaded.getItem2() == null) {
+                    return;
+                }
+                for (Response transactionId : loaded.getItem2()) {
+                    account.transactions.putIfAbsent(transactionId.toString(), now);
+                }
+            }
+        }).replaceWithVoid();
+    }
+
+    /**
+     * Carica tutti i conti di un batch (chiave user:round → userId) prima di applicarne le mutazioni,
+     * che restano nell'ordine dato.
+     */
+    private Uni<Void> load(Map<String, String> rounds) {
+        List<Uni<Void>> loads = new ArrayList<>();
+        rounds.forEach((key, userId) -> loads.add(load(userId, key.substring(userId.length() + 1))));
+        if (loads.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        return Uni.join().all(loads).andFailFast().replaceWithVoid();
+    }
+
+    private static Uni<List<WalletResult>> join(List<Uni<WalletResult>> results) {
+        if (results.isEmpty()) {
+            return Uni.createFrom().item(List.of());
+        }
+        return Uni.join().all(results).andFailFast();
+    }
+
+    /**
+     * Applica la mutazione sotto il lock dello shard e la accoda al log nello stesso ordine,
+     * così il log riflette esattamente la sequenza dei saldi di ogni conto. Il conto deve essere già caricato.
+     * kind è il tipo della voce di journal che la replica scriverà per la mutazione.
+     */
+    private Applied apply(Operation operation, String kind, String userId, long amountCents, String roundId,
+            String transactionId) {
+        Shard shard = shardFor(userId);
+        long now = System.currentTimeMillis();
+        synchronized (shard) {
+            // Il lock scade da solo se il thread di replica resta bloccato: da lì un altro nodo può prenderlo
+            if (!running || failure != null || ownershipLost || now >= ownedUntilMillis) {
+                throw new IllegalStateException("Wallet non disponibile", failure);
+            }
+            Account account = shard.accounts.get(userId);
+            if (account == null || !account.balanceKnown) {
+                return new Applied(Status.USER_NOT_FOUND, new WalletResult(transactionId, false, 0), null);
+            }
+            if (account.isProcessed(transactionId, now)) {
+                return new Applied(Status.PROCESSED,
+                        new WalletResult(transactionId, true, account.balanceCents, true), null);
+            }
+            switch (operation) {
+                case RESERVE -> {
+                    if (account.balanceCents < amountCents) {
+                        return new Applied(Status.INSUFFICIENT_FUNDS,
+                                new WalletResult(transactionId, false, account.balanceCents), null);
+                    }
+                    account.balanceCents -= amountCents;
+                }
+                case CREDIT -> account.balanceCents += amountCents;
+                case REFILL -> {
+                    if (account.balanceCents > 0) {
+                        return new Applied(Status.NOT_EMPTY,
+                                new WalletResult(transactionId, false, account.balanceCents), null);
+                    }
+                    account.balanceCents = amountCents;
+                }
+            }
+            account.transactions.put(transactionId, now);
+
+            CompletableFuture<Void> durable = new CompletableFuture<>();
+            logQueue.add(new Pending(
+                    new WalletLog.Entry(WalletLog.MUTATION, now, userId, transactionId, account.balanceCents,
+                            roundId, kind, amountCents),
+                    durable));
+            LockSupport.unpark(logWriter);
+            return new Applied(Status.OK, new WalletResult(transactionId, true, account.balanceCents), durable);
+        }
+    }
+
+    /**
+     * Conferma la mutazione al chiamante quando è su disco. L'esito viene emesso fuori dal thread
+     * di scrittura del log, che così non esegue il codice dei chiamanti tra un fsync e l'altro.
+     */
+    private Uni<WalletResult> complete(Applied applied, String userId, long amountCents, String logPrefix) {
+        Uni<Void> durable = applied.durable() == null
+                ? Uni.createFrom().voidItem()
+                : Uni.createFrom().completionStage(applied.durable())
+                        .onFailure().transform(e -> new IllegalStateException("Scrittura del wallet log fallita", e))
+                        .ifNoItem().after(Duration.ofMillis(DURABILITY_TIMEOUT_MS))
+                        .failWith(() -> new IllegalStateException("Timeout sulla scrittura del wallet log"))
+                        .emitOn(Infrastructure.getDefaultExecutor());
+        return durable.map(done -> {
+            WalletResult result = applied.result();
+            switch (applied.status()) {
+                case OK -> LOG.info(logPrefix + ": " + amountCents + " cent per user " + userId + ". TX: "
+                        + result.transactionId());
+                case PROCESSED -> LOG.warn("Transazione " + result.transactionId()
+                        + " già processata (Idempotency Hit)");
+                case INSUFFICIENT_FUNDS -> LOG.error("Fondi insufficienti per user " + userId);
+                case USER_NOT_FOUND -> LOG.error("Utente non trovato nel wallet: " + userId);
+                case NOT_EMPTY -> {
+                }
+            }
+            return result;
+        });
+    }
+
+    private void restore(WalletLog.Entry entry) {
+        Shard shard = shardFor(entry.userId());
+        synchronized (shard) {
+            Account account = shard.accounts.computeIfAbsent(entry.userId(), id -> new Account(0, false));
+            if (entry.type() == WalletLog.MUTATION) {
+                account.balanceCents = entry.balanceCents();
+                account.balanceKnown = true;
+            }
+            if (!entry.transactionId().isEmpty()) {
+                account.transactions.put(entry.transactionId(), entry.timestamp());
+            }
+        }
+    }
+
+    /**
+     * Riscrive il log con un record per conto (se balances e il saldo è noto) e uno per transazione
+     * non ancora scaduta. Ogni shard è fotografato sotto il proprio lock: i record applicati prima
+     * della foto ma ancora in coda verranno scritti dopo e, portando saldi assoluti, lasciano il conto
+     * nello stato corretto.
+     */
+    private void compact(boolean balances) throws IOException {
+        long now = System.currentTimeMillis();
+        List<WalletLog.Entry> entries = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.accounts.forEach((userId, account) -> {
+                    account.transactions.values().removeIf(processedAt -> now - processedAt >= PROCESSED_TX_TTL_MS);
+                    account.syncedRounds.values().removeIf(syncedAt -> now - syncedAt >= PROCESSED_TX_TTL_MS);
+                    if (balances && account.balanceKnown) {
+                        entries.add(new WalletLog.Entry(WalletLog.MUTATION, now, userId, "", account.balanceCents,
+                                "", "", 0));
+                    }
+                    // Nel log compattato le transazioni servono solo all'idempotenza in memoria:
+                    // round e voce di journal non servono
+                    account.transactions.forEach((transactionId, processedAt) -> entries.add(
+                            new WalletLog.Entry(WalletLog.TRANSACTION, processedAt, userId, transactionId, 0,
+                                    "", "", 0)));
+                });
+            }
+        }
+        log.rewrite(entries);
+        // Evita compattazioni a ripetizione quando lo stato stesso supera la soglia
+        nextCompactionBytes = Math.max(compactBytes, log.size() * 2);
+        compactions.increment();
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !logQueue.isEmpty()) {
+            Pending pending;
+            while (batch.size() < MAX_BATCH && (pending = logQueue.poll()) != null) {
+                batch.add(pending);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                for (Pending p : batch) {
+                    log.append(p.entry());
+                }
+                log.sync();
+                fsync.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                batchSize.record(batch.size());
+                for (Pending p : batch) {
+                    dirtyBalances.put(p.entry().userId(), p.entry().balanceCents());
+                    dirtyTransactions.add(p.entry());
+                    p.durable().complete(null);
+                }
+                LockSupport.unpark(replicator);
+                batch.clear();
+                if (log.size() >= nextCompactionBytes) {
+                    compact(true);
+                }
+            } catch (IOException e) {
+                LOG.error("Scrittura del wallet log fallita, wallet fermo fino al riavvio", e);
+                failure = e;
+                for (Pending p : batch) {
+                    p.durable().completeExceptionally(e);
+                }
+                while ((pending = logQueue.poll()) != null) {
+                    pending.durable().completeExceptionally(e);
+                }
+                return;
+            }
+        }
+    }
+
+    private void replicationLoop() {
+        long backoffMs = 0;
+        long stopDeadline = 0;
+        while (running || !dirtyBalances.isEmpty() || !dirtyTransactions.isEmpty()) {
+            if (!running) {
+                if (stopDeadline == 0) {
+                    stopDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_FLUSH_MS);
+                } else if (System.nanoTime() > stopDeadline) {
+                    return;
+                }
+            }
+            checkOwnership();
+            // Nessun batch è in volo fuori da questo thread: coda vuota vuol dire journal allineato
+            long checkedAt = System.currentTimeMillis();
+            if (dirtyTransactions.isEmpty()) {
+                journaledBeforeMillis = checkedAt;
+            }
+            if (dirtyBalances.isEmpty() && dirtyTransactions.isEmpty()) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(OWNER_RENEW_MS));
+                continue;
+            }
+            if (replicateBatch()) {
+                backoffMs = 0;
+            } else {
+                replicationRetries.increment();
+                backoffMs = Math.min(Math.max(backoffMs * 2, 50), MAX_BACKOFF_MS);
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoffMs));
+            }
+        }
+    }
+
+    @Override
+    public long journaledBeforeMillis() {
+        return journaledBeforeMillis;
+    }
+
+    private boolean replicateBatch() {
+        long startedAt = System.currentTimeMillis();
+        Map<String, Long> balances = new HashMap<>();
+        for (String userId : dirtyBalances.keySet()) {
+            Long balanceCents = dirtyBalances.remove(userId);
+            if (balanceCents != null) {
+                balances.put(userId, balanceCents);
+            }
+        }
+        List<WalletLog.Entry> transactions = new ArrayList<>();
+        WalletLog.Entry entry;
+        while (transactions.size() < MAX_BATCH && (entry = dirtyTransactions.poll()) != null) {
+            transactions.add(entry);
+        }
+        // La coda è FIFO: se questo batch l'ha svuotata contiene tutto ciò che è stato confermato prima
+        boolean drained = dirtyTransactions.isEmpty();
+
+        long now = System.currentTimeMillis();
+        Map<Integer, List<Request>> bySlot = new HashMap<>();
+        balances.forEach((userId, balanceCents) -> {
+            String playerKey = RedisKeys.player(userId);
+            String zeroKey = RedisKeys.zeroBalanceFor(userId);
+            slotBatch(bySlot, playerKey).add(Request.cmd(Command.HSET).arg(playerKey)
+                    .arg("balanceCents").arg(balanceCents));
+            if (balanceCents < ZERO_BALANCE_THRESHOLD_CENTS) {
+                slotBatch(bySlot, playerKey).add(Request.cmd(Command.HSETNX).arg(playerKey).arg("zeroSince").arg(now));
+                slotBatch(bySlot, zeroKey).add(Request.cmd(Command.ZADD).arg(zeroKey).arg("NX").arg(now).arg(userId));
+            } else {
+                slotBatch(bySlot, playerKey).add(Request.cmd(Command.HDEL).arg(playerKey).arg("zeroSince"));
+                slotBatch(bySlot, zeroKey).add(Request.cmd(Command.ZREM).arg(zeroKey).arg(userId));
+            }
+        });
+        for (WalletLog.Entry tx : transactions) {
+            String ledgerKey = RedisKeys.walletLedger(tx.userId(), tx.roundId());
+            slotBatch(bySlot, ledgerKey).add(Request.cmd(Command.HSET).arg(ledgerKey).arg(tx.transactionId()).arg(1));
+            slotBatch(bySlot, ledgerKey).add(Request.cmd(Command.EXPIRE).arg(ledgerKey)
+                    .arg(PROCESSED_TX_TTL_SECONDS));
+            if (!tx.kind().isEmpty()) {
+                // Dopo un errore la replica viene ritentata: il riconciliatore ignora le voci ripetute
+                slotBatch(bySlot, journal.key()).add(journal.entry(tx.userId(), tx.amountCents(),
+                        tx.transactionId(), tx.roundId(), tx.kind()));
+            }
+        }
+
+        try {
+            List<Uni<List<Response>>> batches = new ArrayList<>(bySlot.size());
+            for (List<Request> requests : bySlot.values()) {
+                batches.add(redis.batch(requests));
+            }
+            // Il rinnovo del lock gira su questo thread: la replica non può bloccarlo oltre un intervallo
+            Uni.join().all(batches).andFailFast().await().atMost(Duration.ofMillis(OWNER_RENEW_MS));
+            if (drained) {
+                journaledBeforeMillis = startedAt;
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.error("Replica di " + balances.size() + " saldi su Redis fallita, nuovo tentativo", e);
+            // Un saldo confermato nel frattempo è più recente e ha la precedenza
+            balances.forEach(dirtyBalances::putIfAbsent);
+            dirtyTransactions.addAll(transactions);
+            return false;
+        }
+    }
+
+    /**
+     * In cluster una pipeline deve restare in un solo slot; su Redis singolo basta un'unica pipeline.
+     */
+    private List<Request> slotBatch(Map<Integer, List<Request>> bySlot, String key) {
+        return bySlot.computeIfAbsent(cluster ? RedisKeys.slot(key) : 0, k -> new ArrayList<>());
+    }
+}
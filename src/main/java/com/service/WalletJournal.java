@@ -0,0 +1,112 @@
+package com.service;
+
+import com.model.Bet;
+import com.model.BetState;
+import com.repository.RedisKeys;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.redis.client.Command;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.Collection;
+
+/**
+ * Journal del wallet su uno stream Redis cappato ({@value RedisKeys#WALLET_JOURNAL}).
+ * Ogni mutazione riuscita aggiunge una voce compatta (user, cents, tx, round, type): sul Redis singolo
+ * la scrive lo script Lua stesso, atomicamente con il saldo; in cluster lo stream sta in un altro slot
+ * e la voce viene aggiunta subito dopo lo script. Alla fine di ogni round l'engine aggiunge una voce
+ * "close" con le poste perse e vinte secondo lo stato in memoria: {@link WalletReconciler} confronta le due viste.
+ */
+@ApplicationScoped
+public class WalletJournal {
+
+    private static final Logger LOG = Logger.getLogger(WalletJournal.class);
+
+    public static final String BET = "bet";
+    public static final String WIN = "win";
+    public static final String REFUND = "refund";
+    public static final String REFILL = "refill";
+    public static final String CLOSE = "close";
+
+    private final Redis redis;
+    private final String key;
+    private final long maxLen;
+
+    @Inject
+    public WalletJournal(ReactiveRedisDataSource ds,
+            @ConfigProperty(name = "game.wallet.journal.max-len", defaultValue = "1000000") long maxLen) {
+        this(ds.getRedis(), RedisKeys.WALLET_JOURNAL, maxLen);
+    }
+
+    /**
+     * Journal su uno stream a scelta, fuori da CDI (benchmark): il riconciliatore legge solo
+     * {@value RedisKeys#WALLET_JOURNAL}.
+     */
+    WalletJournal(Redis redis, String key, long maxLen) {
+        this.redis = redis;
+        this.key = key;
+        this.maxLen = Math.max(maxLen, 1000);
+    }
+
+    /**
+     * Chiave dello stream, passata anche agli script Lua.
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Lunghezza massima (approssimata, MAXLEN ~) dello stream, passata anche agli script Lua.
+     */
+    public long maxLen() {
+        return maxLen;
+    }
+
+    public Request entry(String userId, long cents, String transactionId, String roundId, String type) {
+        return xadd().arg("user").arg(userId).arg("cents").arg(cents).arg("tx").arg(transactionId)
+                .arg("round").arg(roundId).arg("type").arg(type);
+    }
+
+    /**
+     * Aggiunge una voce fuori dagli script (wallet in cluster). Un errore viene solo registrato:
+     * la riconciliazione segnalerà il round come non quadrato.
+     */
+    public Uni<Void> append(String userId, long cents, String transactionId, String roundId, String type) {
+        return redis.send(entry(userId, cents, transactionId, roundId, type)).replaceWithVoid()
+                .onFailure().recoverWithItem(e -> {
+                    LOG.error("Scrittura journal fallita per TX " + transactionId, e);
+                    return null;
+                });
+    }
+
+    /**
+     * Chiude il round con la vista dell'engine: poste perse, poste delle scommesse incassate e vincite
+     * da accreditare. Le scommesse ancora aperte (es. rimborsate al failover) non contano in nessuna delle due.
+     */
+    public void closeRound(String roundId, Collection<Bet> bets) {
+        long lostCents = 0;
+        long wonStakeCents = 0;
+        long wonCents = 0;
+        for (Bet bet : bets) {
+            if (bet.getState() == BetState.CASHED || bet.getCashOutMultiplier() > 0) {
+                wonStakeCents += bet.getAmountCents();
+                wonCents += bet.getAmountCents() + bet.getProfitCents();
+            } else if (bet.getState() == BetState.LOST) {
+                lostCents += bet.getAmountCents();
+            }
+        }
+        redis.send(xadd().arg("round").arg(roundId).arg("type").arg(CLOSE).arg("lost").arg(lostCents)
+                        .arg("stake").arg(wonStakeCents).arg("won").arg(wonCents))
+                .subscribe().with(v -> {
+                }, e -> LOG.error("Chiusura del round " + roundId + " nel journal fallita", e));
+    }
+
+    private Request xadd() {
+        return Request.cmd(Command.XADD).arg(key).arg("MAXLEN").arg("~").arg(maxLen).arg("*");
+    }
+}
@@ -0,0 +1,181 @@
+package com.service;
+
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log del wallet in memoria: file append-only di record (lunghezza, CRC32, payload).
+ * Ogni mutazione porta il saldo assoluto risultante, per cui rigiocare un record più volte
+ * è innocuo e la compattazione può precedere record già applicati ma non ancora scritti.
+ * Non thread-safe: lo usa solo il thread di scrittura del wallet, o l'avvio prima che parta.
+ */
+final class WalletLog {
+
+    private static final Logger LOG = Logger.getLogger(WalletLog.class);
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    static final byte MUTATION = 1;
+    static final byte TRANSACTION = 2;
+
+    /**
+     * MUTATION: saldo dell'utente dopo la transazione (transactionId vuoto negli snapshot).
+     * TRANSACTION: transazione già processata, senza effetto sul saldo.
+     * roundId individua il ledger Redis della transazione; kind e amountCents descrivono la mutazione
+     * per il journal del wallet (kind vuoto: nessuna voce). Sono in coda al payload e vuoti nei record
+     * scritti prima che esistessero.
+     */
+    record Entry(byte type, long timestamp, String userId, String transactionId, long balanceCents,
+                 String roundId, String kind, long amountCents) {
+    }
+
+    private final Path path;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+
+    WalletLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Rilegge il log in ordine di scrittura. Si ferma al primo record troncato o corrotto,
+     * tipicamente l'ultimo batch di una scrittura interrotta da un crash, mai confermato ai chiamanti.
+     *
+     * @return numero di record validi
+     */
+    long replay(Consumer<Entry> sink) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    LOG.warn("Record del wallet log con lunghezza non valida dopo " + count + " record, scarto la coda");
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("CRC non valido nel wallet log dopo " + count + " record, scarto la coda");
+                    break;
+                }
+                sink.accept(decode(payload));
+                count++;
+            }
+        } catch (EOFException e) {
+            LOG.warn("Ultimo record del wallet log troncato, ignorato");
+        }
+        return count;
+    }
+
+    /**
+     * Sostituisce atomicamente il log con i record indicati e lo riapre in append.
+     */
+    void rewrite(List<Entry> entries) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        pending.reset();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : entries) {
+                append(entry);
+                if (pending.size() >= MAX_RECORD_BYTES) {
+                    writeFully(out, pending);
+                }
+            }
+            writeFully(out, pending);
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Accoda un record al batch corrente; diventa durevole solo con {@link #sync()}.
+     */
+    void append(Entry entry) throws IOException {
+        record.reset();
+        recordOut.writeByte(entry.type());
+        recordOut.writeLong(entry.timestamp());
+        recordOut.writeUTF(entry.userId());
+        recordOut.writeUTF(entry.transactionId());
+        recordOut.writeLong(entry.balanceCents());
+        recordOut.writeUTF(entry.roundId());
+        recordOut.writeUTF(entry.kind());
+        recordOut.writeLong(entry.amountCents());
+        byte[] payload = record.toByteArray();
+        crc.reset();
+        crc.update(payload);
+        pendingOut.writeInt(payload.length);
+        pendingOut.writeInt((int) crc.getValue());
+        pendingOut.write(payload);
+    }
+
+    /**
+     * Scrive il batch corrente e attende che sia su disco.
+     */
+    void sync() throws IOException {
+        writeFully(channel, pending);
+        channel.force(false);
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteArrayOutputStream data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data.toByteArray());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        data.reset();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        return new Entry(in.readByte(), in.readLong(), in.readUTF(), in.readUTF(), in.readLong(),
+                in.available() > 0 ? in.readUTF() : "", in.available() > 0 ? in.readUTF() : "",
+                in.available() > 0 ? in.readLong() : 0);
+    }
+}
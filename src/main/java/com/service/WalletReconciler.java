@@ -0,0 +1,302 @@
+package com.service;
+
+import com.repository.RedisKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.stream.StreamCommands;
+import io.quarkus.redis.datasource.stream.StreamMessage;
+import io.quarkus.redis.datasource.stream.XGroupCreateArgs;
+import io.quarkus.redis.datasource.stream.XReadGroupArgs;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.vertx.mutiny.redis.client.Response;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Riconciliazione incrementale del {@link WalletJournal}. Legge lo stream con un consumer group, che fa
+ * da checkpoint: ogni esecuzione parte dall'ultima voce consegnata e non riscansiona mai lo storico.
+ * Le voci di round non ancora verificabili restano pendenti (non confermate) e vengono rilette alla volta
+ * successiva, per cui la memoria è limitata ai round aperti. Un round è verificato quando la sua voce
+ * "close" ha superato il periodo di grazia (vincite e rimborsi asincroni ancora in volo):
+ * poste riservate = rimborsi + poste perse + poste incassate, e vincite accreditate = vincite del round.
+ * Con il wallet WAL le voci arrivano con la replica asincrona: un round si verifica solo quando anche la
+ * replica ha superato la fine del suo periodo di grazia ({@link ReactiveWalletService#journaledBeforeMillis}).
+ * Un lock Redis con token per nodo evita che due nodi consumino il journal insieme; viene rinnovato
+ * prima di confermare le voci, e senza lock la conferma non avviene.
+ * Gira ogni {@code game.wallet.reconciliation.every} con grazia {@code game.wallet.reconciliation.grace};
+ * gli esiti escono come wallet.reconciliation.rounds, .mismatches e .unclosed.
+ */
+@ApplicationScoped
+public class WalletReconciler {
+
+    private static final Logger LOG = Logger.getLogger(WalletReconciler.class);
+    private static final String GROUP = "reconciler";
+    private static final String CONSUMER = "reconciler";
+    private static final String LOCK_KEY = RedisKeys.WALLET_JOURNAL + ":reconciler:lock";
+    private static final long LOCK_TTL_SECONDS = 300;
+
+    // KEYS[1] = lock, ARGV[1] = token
+    private static final String RELEASE_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """;
+
+    // KEYS[1] = lock, ARGV[1] = token, ARGV[2] = ttl (s)
+    private static final String RENEW_SCRIPT = """
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('EXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """;
+    private static final int READ_COUNT = 1000;
+    private static final int MAX_NEW_ENTRIES_PER_RUN = 200_000;
+
+    private static final class Round {
+        // chiave della scommessa (user:indice) -> centesimi
+        final Map<String, Long> reserved = new HashMap<>();
+        final Map<String, Long> refunded = new HashMap<>();
+        final Map<String, Long> won = new HashMap<>();
+        final List<String> ids = new ArrayList<>();
+        long firstSeenMillis = Long.MAX_VALUE;
+        Map<String, String> close;
+        long closedAtMillis;
+    }
+
+    private final RedisDataSource ds;
+    private final StreamCommands<String, String, String> streamCommands;
+    private final ReactiveWalletService walletService;
+    private final String lockToken = UUID.randomUUID().toString();
+    private final long graceMs;
+    private final long maxOpenMs;
+    private final Counter verifiedRounds;
+    private final Counter mismatches;
+    private final Counter unclosedRounds;
+
+    private boolean groupReady;
+
+    @Inject
+    public WalletReconciler(RedisDataSource ds, ReactiveWalletService walletService, MeterRegistry meterRegistry,
+            @ConfigProperty(name = "game.wallet.reconciliation.grace", defaultValue = "30s") Duration grace,
+            @ConfigProperty(name = "game.wallet.reconciliation.max-open", defaultValue = "1h") Duration maxOpen) {
+        this.ds = ds;
+        this.streamCommands = ds.stream(String.class);
+        this.walletService = walletService;
+        this.graceMs = grace.toMillis();
+        this.maxOpenMs = maxOpen.toMillis();
+        this.verifiedRounds = meterRegistry.counter("wallet.reconciliation.rounds");
+        this.mismatches = meterRegistry.counter("wallet.reconciliation.mismatches");
+        this.unclosedRounds = meterRegistry.counter("wallet.reconciliation.unclosed");
+    }
+
+    @Scheduled(every = "${game.wallet.reconciliation.every:60s}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    @RunOnVirtualThread
+    void reconcile() {
+        Response lock = ds.execute("SET", LOCK_KEY, lockToken, "NX", "EX", String.valueOf(LOCK_TTL_SECONDS));
+        if (lock == null || !"OK".equals(lock.toString())) {
+            return;
+        }
+        try {
+            ensureGroup();
+            // Letto prima dello stream: le voci confermate prima di questo istante sono già nelle letture
+            long journaledBefore = walletService.journaledBeforeMillis();
+            Map<String, Round> rounds = new HashMap<>();
+            List<String> done = new ArrayList<>();
+
+            // Voci già consegnate ma di round non ancora verificati
+            String after = "0";
+            List<StreamMessage<String, String, String>> messages;
+            while (!(messages = read(after)).isEmpty()) {
+                messages.forEach(message -> collect(message, rounds, done));
+                after = messages.get(messages.size() - 1).id();
+            }
+            // Voci nuove dall'ultimo checkpoint
+            int fresh = 0;
+            while (fresh < MAX_NEW_ENTRIES_PER_RUN && !(messages = read(">")).isEmpty()) {
+                messages.forEach(message -> collect(message, rounds, done));
+                fresh += messages.size();
+            }
+
+            long now = System.currentTimeMillis();
+            int verified = 0;
+            int failed = 0;
+            for (Map.Entry<String, Round> entry : rounds.entrySet()) {
+                Round round = entry.getValue();
+                if (round.close != null) {
+                    if (now - round.closedAtMillis < graceMs || journaledBefore - round.closedAtMillis < graceMs) {
+                        continue;
+                    }
+                    if (!verify(entry.getKey(), round)) {
+                        failed++;
+                    }
+                    verified++;
+                    done.addAll(round.ids);
+                } else if (now - round.firstSeenMillis >= maxOpenMs) {
+                    LOG.warn("Round " + entry.getKey() + " senza chiusura nel journal dopo "
+                            + (now - round.firstSeenMillis) / 1000 + " s, " + round.ids.size() + " voci scartate");
+                    unclosedRounds.increment();
+                    done.addAll(round.ids);
+                }
+            }
+            if (!renewLock()) {
+                LOG.warn("Lock della riconciliazione scaduto durante l'esecuzione, voci non confermate");
+                return;
+            }
+            acknowledge(done);
+            verifiedRounds.increment(verified);
+            if (verified > 0 || fresh > 0) {
+                LOG.info("Riconciliazione wallet: " + fresh + " nuove voci, " + verified + " round verificati, "
+                        + failed + " non quadrati, " + (rounds.size() - verified) + " in attesa");
+            }
+        } catch (Exception e) {
+            LOG.error("Riconciliazione del wallet fallita, riprende dall'ultimo checkpoint", e);
+        } finally {
+            ds.execute("EVAL", RELEASE_SCRIPT, "1", LOCK_KEY, lockToken);
+        }
+    }
+
+    private boolean renewLock() {
+        Response renewed = ds.execute("EVAL", RENEW_SCRIPT, "1", LOCK_KEY, lockToken, String.valueOf(LOCK_TTL_SECONDS));
+        return renewed != null && renewed.toLong() == 1L;
+    }
+
+    private void ensureGroup() {
+        if (groupReady) {
+            return;
+        }
+        try {
+            // Il journal parte dall'inizio: al primo avvio vengono riconciliate anche le voci già presenti
+            streamCommands.xgroupCreate(RedisKeys.WALLET_JOURNAL, GROUP, "0", new XGroupCreateArgs().mkstream());
+        } catch (Exception e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+        groupReady = true;
+    }
+
+    private List<StreamMessage<String, String, String>> read(String id) {
+        List<StreamMessage<String, String, String>> messages = streamCommands.xreadgroup(GROUP, CONSUMER,
+                RedisKeys.WALLET_JOURNAL, id, new XReadGroupArgs().count(READ_COUNT));
+        return messages != null ? messages : List.of();
+    }
+
+    private static void collect(StreamMessage<String, String, String> message, Map<String, Round> rounds,
+            List<String> done) {
+        Map<String, String> fields = message.payload();
+        String type = fields != null ? fields.get("type") : null;
+        String roundId = fields != null ? fields.get("round") : null;
+        // Voci già tagliate dal MAXLEN o ricariche, che non appartengono a un round
+        if (type == null || roundId == null || WalletJournal.REFILL.equals(type)) {
+            done.add(message.id());
+            return;
+        }
+        Round round = rounds.computeIfAbsent(roundId, id -> new Round());
+        long timestamp = timestampOf(message.id());
+        round.ids.add(message.id());
+        round.firstSeenMillis = Math.min(round.firstSeenMillis, timestamp);
+        if (WalletJournal.CLOSE.equals(type)) {
+            // Dopo un failover vale l'ultima chiusura
+            if (timestamp >= round.closedAtMillis) {
+                round.close = fields;
+                round.closedAtMillis = timestamp;
+            }
+            return;
+        }
+        String betKey = betKey(fields.get("user"), fields.get("tx"));
+        long cents = Long.parseLong(fields.get("cents"));
+        // Una voce ripetuta (replica ritentata) ha la stessa transazione: sovrascrive se stessa
+        switch (type) {
+            case WalletJournal.BET -> round.reserved.put(betKey, cents);
+            case WalletJournal.REFUND -> round.refunded.put(betKey, cents);
+            case WalletJournal.WIN -> round.won.put(betKey, cents);
+            default -> LOG.warn("Voce di journal di tipo sconosciuto: " + type + " (" + message.id() + ")");
+        }
+    }
+
+    /**
+     * Confronta i movimenti del round con la sua chiusura.
+     *
+     * @return true se il round quadra
+     */
+    private boolean verify(String roundId, Round round) {
+        List<String> problems = new ArrayList<>();
+        long reserved = sum(round.reserved);
+        long refunded = sum(round.refunded);
+        long won = sum(round.won);
+        long lost = Long.parseLong(round.close.getOrDefault("lost", "0"));
+        long stake = Long.parseLong(round.close.getOrDefault("stake", "0"));
+        long expectedWon = Long.parseLong(round.close.getOrDefault("won", "0"));
+
+        if (reserved != refunded + lost + stake) {
+            problems.add("riservati " + reserved + " != rimborsati " + refunded + " + persi " + lost
+                    + " + incassati " + stake);
+        }
+        if (won != expectedWon) {
+            problems.add("vincite accreditate " + won + " != vincite del round " + expectedWon);
+        }
+        round.refunded.forEach((betKey, cents) -> {
+            Long stakeCents = round.reserved.get(betKey);
+            if (stakeCents == null) {
+                problems.add("rimborso senza prenotazione per " + betKey);
+            } else if (stakeCents.longValue() != cents) {
+                problems.add("rimborso di " + cents + " su una posta di " + stakeCents + " per " + betKey);
+            }
+            if (round.won.containsKey(betKey)) {
+                problems.add("scommessa sia rimborsata che pagata: " + betKey);
+            }
+        });
+        round.won.keySet().forEach(betKey -> {
+            if (!round.reserved.containsKey(betKey)) {
+                problems.add("vincita senza prenotazione per " + betKey);
+            }
+        });
+
+        if (problems.isEmpty()) {
+            return true;
+        }
+        mismatches.increment();
+        LOG.error("CRITICAL: Round " + roundId + " non quadra nel journal del wallet: " + String.join("; ", problems));
+        return false;
+    }
+
+    private void acknowledge(List<String> ids) {
+        for (int from = 0; from < ids.size(); from += READ_COUNT) {
+            List<String> chunk = ids.subList(from, Math.min(from + READ_COUNT, ids.size()));
+            streamCommands.xack(RedisKeys.WALLET_JOURNAL, GROUP, chunk.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Le transazioni di una scommessa (bet:, win:, refund: e refund:bet:) terminano tutte con l'indice.
+     */
+    private static String betKey(String userId, String transactionId) {
+        return userId + ":" + transactionId.substring(transactionId.lastIndexOf(':') + 1);
+    }
+
+    private static long timestampOf(String streamId) {
+        int dash = streamId.indexOf('-');
+        return Long.parseLong(dash > 0 ? streamId.substring(0, dash) : streamId);
+    }
+
+    private static long sum(Map<String, Long> amounts) {
+        long total = 0;
+        for (long cents : amounts.values()) {
+            total += cents;
+        }
+        return total;
+    }
+}
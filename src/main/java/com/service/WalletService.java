@@ -1,45 +1,83 @@
 package com.service;
 
+import com.dto.WalletCredit;
+import com.dto.WalletReservation;
+import com.dto.WalletResult;
+
+import java.util.List;
+
+/**
+ * Wallet dei giocatori. Tutti gli importi e i saldi sono in centesimi interi.
+ */
 public interface WalletService {
     /**
      * Tenta di riservare fondi per una scommessa.
      * 
      * @param userId        ID dell'utente
-     * @param amount        Importo da scommettere
+     * @param amountCents   Importo da scommettere, in centesimi
      * @param roundId       ID del round di gioco
      * @param transactionId ID univoco della transazione per idempotenza
-     * @return true se i fondi sono stati riservati con successo, false altrimenti
+     * @return Esito (true se i fondi sono stati riservati) e saldo dopo la transazione
      */
-    boolean reserveFunds(String userId, double amount, String roundId, String transactionId);
+    WalletResult reserveFunds(String userId, long amountCents, String roundId, String transactionId);
+
+    /**
+     * Riserva i fondi di più scommesse con una sola operazione verso lo storage.
+     * Ogni prenotazione mantiene la propria chiave di idempotenza ed è valutata nell'ordine dato.
+     *
+     * @param reservations Prenotazioni da eseguire
+     * @return Esito e saldo risultante di ogni prenotazione, nello stesso ordine
+     */
+    List<WalletResult> reserveFunds(List<WalletReservation> reservations);
 
     /**
      * Accredita una vincita al giocatore.
      * 
      * @param userId        ID dell'utente
-     * @param amount        Importo vinto (inclusa la posta originale)
+     * @param amountCents   Importo vinto (inclusa la posta originale), in centesimi
      * @param roundId       ID del round di gioco
      * @param transactionId ID univoco della transazione per idempotenza
-     * @return true se l'accredito è avvenuto (o era già stato processato), false su
-     *         errore
+     * @return Esito (true se l'accredito è avvenuto o era già stato processato) e saldo
+     *         dopo la transazione
      */
-    boolean creditWinnings(String userId, double amount, String roundId, String transactionId);
+    WalletResult creditWinnings(String userId, long amountCents, String roundId, String transactionId);
+
+    /**
+     * Accredita più vincite con una sola operazione verso lo storage (es. tutti gli auto-cashout di un tick).
+     * Ogni accredito mantiene la propria chiave di idempotenza.
+     *
+     * @param credits Accrediti da eseguire
+     * @return Esito e saldo risultante di ogni accredito, nello stesso ordine
+     */
+    List<WalletResult> creditWinnings(List<WalletCredit> credits);
 
     /**
      * Rimborsa una scommessa (es. cancellazione o rollback).
      * 
      * @param userId        ID dell'utente
-     * @param amount        Importo da rimborsare
+     * @param amountCents   Importo da rimborsare, in centesimi
      * @param roundId       ID del round di gioco
      * @param transactionId ID univoco della transazione per idempotenza
-     * @return true se il rimborso è avvenuto
+     * @return Esito (true se il rimborso è avvenuto) e saldo dopo la transazione
+     */
+    WalletResult refundBet(String userId, long amountCents, String roundId, String transactionId);
+
+    /**
+     * Ricarica il saldo al valore indicato se è esaurito (zero o negativo).
+     *
+     * @param userId        ID dell'utente
+     * @param balanceCents  Saldo dopo la ricarica, in centesimi
+     * @param transactionId ID univoco della transazione per idempotenza
+     * @return Esito (true se la ricarica è avvenuta o era già stata processata) e saldo
+     *         dopo la transazione
      */
-    boolean refundBet(String userId, double amount, String roundId, String transactionId);
+    WalletResult refill(String userId, long balanceCents, String transactionId);
 
     /**
      * Ottiene il saldo corrente dell'utente.
      * 
      * @param userId ID dell'utente
-     * @return Il saldo attuale
+     * @return Il saldo attuale in centesimi
      */
-    double getBalance(String userId);
+    long getBalanceCents(String userId);
 }
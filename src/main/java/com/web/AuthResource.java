@@ -1,5 +1,6 @@
 package com.web;
 
+import com.model.Money;
 import com.service.AuthService;
 import com.service.FileStorageService;
 import com.web.model.*;
@@ -288,21 +289,22 @@ public class AuthResource {
     @Authenticated
     public Response me() {
         String userId = jwt.getClaim("userId");
-        var user = authService.findById(userId);
-        if (user == null) {
+        var profile = authService.findProfile(userId);
+        Long balance = authService.findBalanceCents(userId);
+        if (profile == null || balance == null) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
-        String avatarUrl = user.getAvatarUrl();
+        String avatarUrl = profile.avatarUrl();
         if (avatarUrl != null && !avatarUrl.startsWith("http") && !avatarUrl.startsWith("data:")) {
-            avatarUrl = "/users/" + user.getId() + "/avatar";
+            avatarUrl = "/users/" + profile.id() + "/avatar";
         }
 
         return Response.ok(new PublicUserDto(
-                user.getId(),
-                user.getUsername(),
-                user.getEmail(),
-                user.getBalance(),
+                profile.id(),
+                profile.username(),
+                profile.email(),
+                Money.toDouble(balance),
                 avatarUrl)).build();
     }
 }
@@ -1,9 +1,9 @@
 package com.web;
 
-import com.dto.CashOutResult;
 import com.web.model.ErrorResponse;
 import com.service.BettingService;
 import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -32,61 +32,65 @@ public class BettingResource {
         public double autoCashout;
         public int index;
         public String nonce;
+        public String room;
     }
 
+    /**
+     * Gira sull'event loop: scommessa e cashout non fanno chiamate bloccanti.
+     */
     @POST
     @Path("/place")
     @Authenticated
-    public Response placeBet(BetRequest req) {
-        try {
-            String userId = jwt.getClaim("userId");
-            String username = jwt.getClaim("username");
-
-            if (username == null) {
-                username = jwt.getName();
-            }
+    public Uni<Response> placeBet(BetRequest req) {
+        String userId = jwt.getClaim("userId");
+        String username = jwt.getClaim("username");
 
-            int betIndex = (req.index == 1) ? 1 : 0;
-            bettingService.placeBet(userId, username, req.amount, req.autoCashout, betIndex, req.nonce);
-            return Response.ok().build();
-        } catch (IllegalArgumentException | IllegalStateException e) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(new ErrorResponse(e.getMessage())).build();
-        } catch (Exception e) {
-            LOG.error("Errore piazzamento scommessa", e);
-            return Response.serverError().entity(new ErrorResponse("Errore interno")).build();
+        if (username == null) {
+            username = jwt.getName();
         }
+
+        int betIndex = (req.index == 1) ? 1 : 0;
+        return bettingService.placeBet(req.room, userId, username, req.amount, req.autoCashout, betIndex, req.nonce)
+                .map(v -> Response.ok().build())
+                .onFailure().recoverWithItem(e -> {
+                    if (e instanceof IllegalArgumentException || e instanceof IllegalStateException) {
+                        return badRequest(e);
+                    }
+                    LOG.error("Errore piazzamento scommessa", e);
+                    return Response.serverError().entity(new ErrorResponse("Errore interno")).build();
+                });
     }
 
     @POST
     @Path("/cashout")
     @Authenticated
-    public Response cashOut(@QueryParam("index") Integer index) {
-        try {
-            String userId = jwt.getClaim("userId");
-            int betIndex = (index != null && index == 1) ? 1 : 0;
-            CashOutResult result = bettingService.cashOut(userId, betIndex);
-            return Response.ok(result).build();
-        } catch (IllegalStateException e) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(new ErrorResponse(e.getMessage())).build();
-        } catch (Exception e) {
-            return Response.serverError().entity(new ErrorResponse("Errore interno")).build();
-        }
+    public Uni<Response> cashOut(@QueryParam("index") Integer index, @QueryParam("room") String room) {
+        String userId = jwt.getClaim("userId");
+        int betIndex = (index != null && index == 1) ? 1 : 0;
+        return bettingService.cashOut(room, userId, betIndex)
+                .map(result -> Response.ok(result).build())
+                .onFailure().recoverWithItem(e -> {
+                    if (e instanceof IllegalArgumentException || e instanceof IllegalStateException) {
+                        return badRequest(e);
+                    }
+                    return Response.serverError().entity(new ErrorResponse("Errore interno")).build();
+                });
     }
 
     @POST
     @Path("/cancel")
     @Authenticated
-    public Response cancelBet(@QueryParam("index") Integer index) {
-        try {
-            String userId = jwt.getClaim("userId");
-            int betIndex = (index != null && index == 1) ? 1 : 0;
-            bettingService.cancelBet(userId, betIndex);
-            return Response.ok().build();
-        } catch (IllegalStateException e) {
-            return Response.status(Response.Status.BAD_REQUEST).entity(new ErrorResponse(e.getMessage())).build();
-        } catch (Exception e) {
-            return Response.serverError().entity(new ErrorResponse("Errore interno")).build();
-        }
+    public Uni<Response> cancelBet(@QueryParam("index") Integer index, @QueryParam("room") String room) {
+        String userId = jwt.getClaim("userId");
+        int betIndex = (index != null && index == 1) ? 1 : 0;
+        return bettingService.cancelBet(room, userId, betIndex)
+                .map(v -> Response.ok().build())
+                .onFailure().recoverWithItem(e -> {
+                    if (e instanceof IllegalArgumentException || e instanceof IllegalStateException) {
+                        return badRequest(e);
+                    }
+                    return Response.serverError().entity(new ErrorResponse("Errore interno")).build();
+                });
     }
 
     @GET
@@ -103,4 +107,8 @@ public class BettingResource {
         }
     }
 
+    private static Response badRequest(Throwable e) {
+        return Response.status(Response.Status.BAD_REQUEST).entity(new ErrorResponse(e.getMessage())).build();
+    }
+
 }
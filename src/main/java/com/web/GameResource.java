@@ -1,14 +1,20 @@
 package com.web;
 
 import com.service.GameEngineService;
+import com.service.GameRoom;
+import com.service.HistoryRing;
 import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
 import jakarta.annotation.security.PermitAll;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 
 import java.util.List;
@@ -26,30 +32,62 @@ public class GameResource {
         this.pfService = pfService;
     }
 
+    /**
+     * Servita dallo storico in memoria della stanza; l'ETag dipende dai crash restituiti, non dal nodo.
+     */
     @GET
     @Path("/history")
     @PermitAll
-    @RunOnVirtualThread
-    public List<String> getFullHistory(@QueryParam("limit") Integer limit) {
+    public Response getFullHistory(@QueryParam("limit") Integer limit, @QueryParam("room") String room,
+            @Context Request request) {
         int actualLimit = (limit != null && limit > 0) ? limit : 50;
-        return gameEngine.getFullHistory(actualLimit);
+        GameRoom gameRoom = findRoom(room);
+        HistoryRing.View history = gameRoom.getHistoryView();
+        EntityTag etag = new EntityTag(gameRoom.getId() + "-" + history.tag(actualLimit));
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(history.toJson(actualLimit)).tag(etag).build();
+    }
+
+    @GET
+    @Path("/rooms")
+    @PermitAll
+    public List<RoomDto> getRooms() {
+        return gameEngine.getRooms().stream()
+                .map(r -> new RoomDto(r.getId(), r.getMinBet(), r.getMaxBet()))
+                .toList();
     }
 
     @GET
     @Path("/fairness")
     @RunOnVirtualThread
-    public Response getFairnessDetails() {
-        String commitment = pfService.getCurrentCommitment();
-        long remaining = pfService.getRemainingGames();
+    public Response getFairnessDetails(@QueryParam("room") String room) {
+        String roomId = findRoom(room).getId();
+        String commitment = pfService.getCurrentCommitment(roomId);
+        long remaining = pfService.getRemainingGames(roomId);
 
         if (commitment == null) {
             return Response.status(Response.Status.SERVICE_UNAVAILABLE)
                     .entity("Chain generation in progress").build();
         }
 
-        return Response.ok(new FairnessDto(commitment, remaining)).build();
+        return Response.ok(new FairnessDto(commitment, remaining, pfService.getNextCommitment(roomId))).build();
+    }
+
+    private GameRoom findRoom(String room) {
+        try {
+            return gameEngine.getRoom(room);
+        } catch (IllegalArgumentException e) {
+            throw new NotFoundException(e.getMessage());
+        }
+    }
+
+    public record FairnessDto(String activeCommitment, long remainingGames, String nextCommitment) {
     }
 
-    public record FairnessDto(String activeCommitment, long remainingGames) {
+    public record RoomDto(String id, double minBet, double maxBet) {
     }
 }
@@ -1,50 +1,78 @@
 package com.web;
 
 import com.model.Game;
+import com.model.GameState;
 import com.service.BettingService;
 import com.service.GameEngineService;
+import com.service.GameRoom;
+import com.service.MultiplierCurve;
 import io.quarkus.websockets.next.OnClose;
 import io.quarkus.websockets.next.OnOpen;
 import io.quarkus.websockets.next.OnTextMessage;
 import io.quarkus.websockets.next.WebSocket;
 import io.quarkus.websockets.next.WebSocketConnection;
 import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.smallrye.mutiny.Uni;
 import io.quarkus.security.Authenticated;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.jwt.JsonWebToken;
 import org.jboss.logging.Logger;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.Map;
-import java.util.List;
 
 @WebSocket(path = "/game")
-@RunOnVirtualThread
 @Authenticated
 public class GameSocket {
 
+    /**
+     * Subprotocollo negoziato dai client che disegnano la curva in locale: ricevono
+     * TAKEOFF con istante di partenza e tasso di crescita, frame SYNC per allineare
+     * l'orologio e solo TICK di checkpoint. Senza subprotocollo resta il flusso TICK classico.
+     */
+    public static final String EXTRAPOLATION_SUBPROTOCOL = "pizza-express.v2";
+
     private static final Logger LOG = Logger.getLogger(GameSocket.class);
-    private static final Set<WebSocketConnection> sessions = ConcurrentHashMap.newKeySet();
+    private static final Map<String, RoomSessions> roomSessions = new ConcurrentHashMap<>();
     private static final Map<String, UserInfo> connectedUsers = new ConcurrentHashMap<>();
+    private static final Map<String, Set<WebSocketConnection>> userConnections = new ConcurrentHashMap<>();
     private final Map<String, Bucket> rateLimiters = new ConcurrentHashMap<>();
     private final GameEngineService gameEngine;
     private final BettingService bettingService;
     private final JsonWebToken jwt;
+    private final TickRateController tickRate;
 
     @Inject
-    public GameSocket(GameEngineService gameEngine, BettingService bettingService, JsonWebToken jwt) {
+    public GameSocket(GameEngineService gameEngine, BettingService bettingService, JsonWebToken jwt,
+            TickRateController tickRate) {
         this.gameEngine = gameEngine;
         this.bettingService = bettingService;
         this.jwt = jwt;
+        this.tickRate = tickRate;
     }
 
-    private record UserInfo(String userId, String username) {
+    private record UserInfo(String userId, String username, String roomId, boolean extrapolating) {
+    }
+
+    private static final class RoomSessions {
+        private final Set<WebSocketConnection> legacy = ConcurrentHashMap.newKeySet();
+        private final Set<WebSocketConnection> extrapolating = ConcurrentHashMap.newKeySet();
+        private final AtomicLong ticks = new AtomicLong();
+        private volatile long lastSyncMillis;
+
+        private Set<WebSocketConnection> sessions(boolean extrapolating) {
+            return extrapolating ? this.extrapolating : legacy;
+        }
     }
 
     @OnOpen
+    @RunOnVirtualThread
     public void onOpen(WebSocketConnection connection) {
         String userId = jwt.getClaim("userId");
         String username = jwt.getClaim("username");
@@ -52,6 +80,17 @@ public class GameSocket {
             username = jwt.getName();
         }
 
+        GameRoom room;
+        try {
+            room = gameEngine.getRoom(queryParam(connection, "room"));
+        } catch (IllegalArgumentException e) {
+            connection.sendText("ERROR:" + e.getMessage())
+                    .chain(() -> connection.close())
+                    .subscribe().with(v -> {
+                    }, t -> LOG.error("Errore invio errore stanza", t));
+            return;
+        }
+
         Bucket bucket = Bucket.builder()
                 .addLimit(Bandwidth.builder()
                         .capacity(5)
@@ -60,42 +99,67 @@ public class GameSocket {
                 .build();
         rateLimiters.put(connection.id(), bucket);
 
-        connectedUsers.put(connection.id(), new UserInfo(userId, username));
-        sessions.add(connection);
-        LOG.info("Nuova connessione autenticata: " + username + " (" + connection.id() + ")");
+        boolean extrapolating = EXTRAPOLATION_SUBPROTOCOL.equals(connection.subprotocol());
+        connectedUsers.put(connection.id(), new UserInfo(userId, username, room.getId(), extrapolating));
+        if (userId != null) {
+            userConnections.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(connection);
+        }
+        roomSessions.computeIfAbsent(room.getId(), k -> new RoomSessions()).sessions(extrapolating).add(connection);
+        LOG.info("Nuova connessione autenticata: " + username + " (" + connection.id() + ") stanza " + room.getId()
+                + (extrapolating ? " [" + EXTRAPOLATION_SUBPROTOCOL + "]" : ""));
 
-        Game currentGame = gameEngine.getCurrentGame();
+        Game currentGame = room.getCurrentGame();
         if (currentGame != null) {
             connection.sendText("STATE:" + currentGame.getStatus() + ":" + currentGame.getMultiplier())
                     .subscribe().with(v -> {
                     }, t -> LOG.error("Errore onOpen", t));
+            if (extrapolating) {
+                send(connection, "SYNC:" + System.currentTimeMillis());
+                if (currentGame.getStatus() == GameState.FLYING) {
+                    send(connection, MultiplierCurve.takeoffFrame(room.getRoundStartTime()));
+                }
+            }
         }
 
-        List<String> history = gameEngine.getHistory();
-        if (history != null && !history.isEmpty()) {
-            String historyMsg = "HISTORY:" + String.join(",", history);
-            connection.sendText(historyMsg)
+        String historyFrame = room.getHistoryView().getFrame();
+        if (historyFrame != null) {
+            connection.sendText(historyFrame)
                     .subscribe().with(v -> {
                     }, t -> LOG.error("Errore invio HISTORY", t));
         }
     }
 
     @OnClose
+    @RunOnVirtualThread
     public void onClose(WebSocketConnection connection) {
-        sessions.remove(connection);
-        connectedUsers.remove(connection.id());
+        UserInfo userInfo = connectedUsers.remove(connection.id());
+        if (userInfo != null) {
+            RoomSessions sessions = roomSessions.get(userInfo.roomId());
+            if (sessions != null) {
+                sessions.sessions(userInfo.extrapolating()).remove(connection);
+            }
+            if (userInfo.userId() != null) {
+                userConnections.computeIfPresent(userInfo.userId(), (k, connections) -> {
+                    connections.remove(connection);
+                    return connections.isEmpty() ? null : connections;
+                });
+            }
+        }
         rateLimiters.remove(connection.id());
         LOG.info("Connessione chiusa: " + connection.id());
     }
 
+    /**
+     * Gira sull'event loop: scommesse e cashout restituiscono un Uni e nessun passaggio blocca il thread.
+     */
     @OnTextMessage
-    public void onMessage(WebSocketConnection connection, String message) {
+    public Uni<Void> onMessage(WebSocketConnection connection, String message) {
         UserInfo userInfo = connectedUsers.get(connection.id());
         if (userInfo == null) {
             connection.sendText("ERROR:Utente non autenticato")
                     .subscribe().with(v -> connection.close(), t -> {
                     });
-            return;
+            return Uni.createFrom().voidItem();
         }
 
         Bucket bucket = rateLimiters.get(connection.id());
@@ -105,7 +169,7 @@ public class GameSocket {
                     .subscribe().with(v -> {
                     }, t -> {
                     });
-            return;
+            return Uni.createFrom().voidItem();
         }
 
         try {
@@ -115,7 +179,7 @@ public class GameSocket {
                     connection.sendText("ERROR:Formato scommessa errato.")
                             .subscribe().with(v -> {
                             }, t -> LOG.error("Errore invio errore", t));
-                    return;
+                    return Uni.createFrom().voidItem();
                 }
 
                 String userId = userInfo.userId();
@@ -128,25 +192,36 @@ public class GameSocket {
                     connection.sendText("ERROR:Importo scommessa non valido.")
                             .subscribe().with(v -> {
                             }, t -> LOG.error("Errore invio errore validazione", t));
-                    return;
+                    return Uni.createFrom().voidItem();
                 }
                 int index = (parts.length > 4) ? Integer.parseInt(parts[4]) : 0;
 
-                bettingService.placeBet(userId, username, amount, 0.0, index, nonce);
-
-                connection.sendText("BET_OK:" + amount)
-                        .subscribe().with(v -> {
-                        }, t -> LOG.error("Errore invio BET_OK", t));
-                broadcast("BET_ANNOUNCEMENT:" + username + ":" + amount);
+                return bettingService.placeBet(userInfo.roomId(), userId, username, amount, 0.0, index, nonce, true)
+                        .invoke(() -> connection.sendText("BET_OK:" + amount)
+                                .subscribe().with(v -> {
+                                }, t -> LOG.error("Errore invio BET_OK", t)))
+                        .onFailure().recoverWithItem(e -> {
+                            sendError(connection, message, e);
+                            return null;
+                        });
 
             } else if (message.startsWith("CASHOUT:")) {
                 String[] parts = message.split(":");
                 String userId = userInfo.userId();
                 int index = (parts.length > 2) ? Integer.parseInt(parts[2]) : 0;
-                bettingService.cashOut(userId, index);
-                connection.sendText("CASHOUT_OK")
-                        .subscribe().with(v -> {
-                        }, t -> LOG.error("Errore invio CASHOUT_OK", t));
+                return bettingService.cashOut(userInfo.roomId(), userId, index)
+                        .invoke(() -> connection.sendText("CASHOUT_OK")
+                                .subscribe().with(v -> {
+                                }, t -> LOG.error("Errore invio CASHOUT_OK", t)))
+                        .replaceWithVoid()
+                        .onFailure().recoverWithItem(e -> {
+                            sendError(connection, message, e);
+                            return null;
+                        });
+
+            } else if (message.startsWith("SYNC:")) {
+                // Sincronizzazione NTP-like: il client stima offset e RTT da t0 e dall'ora del server
+                send(connection, message + ":" + System.currentTimeMillis());
 
             } else if (message.equals("PING")) {
                 connection.sendText("PONG")
@@ -154,18 +229,104 @@ public class GameSocket {
                         }, t -> LOG.error("Errore invio PONG", t));
             }
         } catch (Exception e) {
-            LOG.error("Errore gestione messaggio: " + message, e);
-            connection.sendText("ERROR:" + e.getMessage())
-                    .subscribe().with(v -> {
-                    }, t -> LOG.error("Errore invio Exception", t));
+            sendError(connection, message, e);
         }
+        return Uni.createFrom().voidItem();
     }
 
-    public void broadcast(String message) {
-        sessions.forEach(s -> {
-            s.sendText(message)
-                    .subscribe().with(v -> {
-                    }, t -> LOG.error("Errore invio broadcast a " + s.id(), t));
-        });
+    private static void sendError(WebSocketConnection connection, String message, Throwable e) {
+        LOG.error("Errore gestione messaggio: " + message, e);
+        connection.sendText("ERROR:" + e.getMessage())
+                .subscribe().with(v -> {
+                }, t -> LOG.error("Errore invio Exception", t));
+    }
+
+    private static String queryParam(WebSocketConnection connection, String name) {
+        String query = connection.handshakeRequest().query();
+        if (query == null || query.isEmpty()) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inoltra un evento della stanza alle sessioni locali. I TICK vengono diradati secondo
+     * {@link TickRateController}; il TAKEOFF esteso viene ridotto a "TAKEOFF" per i client legacy.
+     */
+    public void broadcast(String roomId, String message) {
+        if (message.startsWith("BALANCE:")) {
+            sendBalance(message);
+            return;
+        }
+        RoomSessions sessions = roomSessions.get(roomId);
+        if (sessions == null) {
+            return;
+        }
+        if (message.startsWith("TICK:")) {
+            broadcastTick(sessions, message);
+        } else if (message.startsWith("TAKEOFF:")) {
+            sessions.ticks.set(0);
+            sendAll(sessions.legacy, "TAKEOFF");
+            sendAll(sessions.extrapolating, message);
+            sendSync(sessions, System.currentTimeMillis());
+        } else {
+            sendAll(sessions.legacy, message);
+            sendAll(sessions.extrapolating, message);
+        }
+    }
+
+    /**
+     * "BALANCE:userId:saldo" dal bus diventa "BALANCE:saldo" sulle sole connessioni del giocatore.
+     */
+    private void sendBalance(String message) {
+        int sep = message.lastIndexOf(':');
+        Set<WebSocketConnection> connections = userConnections.get(message.substring(8, sep));
+        if (connections == null) {
+            return;
+        }
+        String frame = "BALANCE:" + message.substring(sep + 1);
+        for (WebSocketConnection connection : connections) {
+            send(connection, frame);
+        }
+    }
+
+    private void broadcastTick(RoomSessions sessions, String message) {
+        long tick = sessions.ticks.incrementAndGet();
+        if (tick % tickRate.legacyStride(sessions.legacy.size(), connectedUsers.size()) == 0) {
+            sendAll(sessions.legacy, message);
+        }
+        if (tick % tickRate.checkpointStride() == 0) {
+            sendAll(sessions.extrapolating, message);
+            long now = System.currentTimeMillis();
+            if (now - sessions.lastSyncMillis >= tickRate.getSyncIntervalMs()) {
+                sendSync(sessions, now);
+            }
+        }
+    }
+
+    private void sendSync(RoomSessions sessions, long now) {
+        sessions.lastSyncMillis = now;
+        sendAll(sessions.extrapolating, "SYNC:" + now);
+    }
+
+    private void sendAll(Set<WebSocketConnection> sessions, String message) {
+        for (WebSocketConnection s : sessions) {
+            send(s, message);
+        }
+    }
+
+    private void send(WebSocketConnection connection, String message) {
+        tickRate.writeStarted();
+        connection.sendText(message)
+                .subscribe().with(v -> tickRate.writeCompleted(), t -> {
+                    tickRate.writeCompleted();
+                    LOG.error("Errore invio broadcast a " + connection.id(), t);
+                });
     }
 }
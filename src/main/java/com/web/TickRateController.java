@@ -0,0 +1,80 @@
+package com.web;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decide ogni quanti tick del game loop inoltrare un frame TICK alle sessioni WebSocket.
+ * I client legacy ricevono i TICK a frequenza piena finché le sessioni connesse e la coda
+ * di scritture in uscita restano contenute, poi la frequenza scende fino a max-tick-stride.
+ * I client che estrapolano la curva ricevono solo un checkpoint ogni checkpoint-interval-ms.
+ */
+@ApplicationScoped
+public class TickRateController {
+
+    private final int sessionsPerStep;
+    private final int maxStride;
+    private final int queueDepthPerSession;
+    private final int checkpointStride;
+    private final long syncIntervalMs;
+
+    private final AtomicLong pendingWrites = new AtomicLong();
+    private volatile int currentStride = 1;
+
+    public TickRateController(
+            @ConfigProperty(name = "game.tick-period-ms", defaultValue = "50") long tickPeriodMs,
+            @ConfigProperty(name = "game.ws.sessions-per-tick-step", defaultValue = "500") int sessionsPerStep,
+            @ConfigProperty(name = "game.ws.max-tick-stride", defaultValue = "4") int maxStride,
+            @ConfigProperty(name = "game.ws.queue-depth-per-session", defaultValue = "2") int queueDepthPerSession,
+            @ConfigProperty(name = "game.ws.checkpoint-interval-ms", defaultValue = "1000") long checkpointIntervalMs,
+            @ConfigProperty(name = "game.ws.sync-interval-ms", defaultValue = "5000") long syncIntervalMs,
+            MeterRegistry meterRegistry) {
+        this.sessionsPerStep = Math.max(sessionsPerStep, 1);
+        this.maxStride = Math.max(maxStride, 1);
+        this.queueDepthPerSession = Math.max(queueDepthPerSession, 1);
+        this.checkpointStride = (int) Math.max(checkpointIntervalMs / tickPeriodMs, 1);
+        this.syncIntervalMs = syncIntervalMs;
+
+        Gauge.builder("ws.outbound.pending", pendingWrites, AtomicLong::get)
+                .description("Frame WebSocket in attesa di essere scritti")
+                .register(meterRegistry);
+        Gauge.builder("ws.tick.stride", this, c -> c.currentStride)
+                .description("Tick del game loop per ogni frame TICK inviato ai client legacy")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Passo dei TICK per i client legacy di una stanza: cresce di uno ogni sessionsPerStep sessioni legacy
+     * della stanza e raddoppia se la coda in uscita (condivisa da tutte le stanze) supera
+     * queueDepthPerSession frame per sessione connessa al nodo.
+     */
+    public int legacyStride(int roomLegacySessions, int totalSessions) {
+        int stride = 1 + roomLegacySessions / sessionsPerStep;
+        if (pendingWrites.get() > (long) Math.max(totalSessions, 1) * queueDepthPerSession) {
+            stride *= 2;
+        }
+        stride = Math.min(stride, maxStride);
+        currentStride = stride;
+        return stride;
+    }
+
+    public int checkpointStride() {
+        return checkpointStride;
+    }
+
+    public long getSyncIntervalMs() {
+        return syncIntervalMs;
+    }
+
+    public void writeStarted() {
+        pendingWrites.incrementAndGet();
+    }
+
+    public void writeCompleted() {
+        pendingWrites.decrementAndGet();
+    }
+}
@@ -1,6 +1,6 @@
 package com.web;
 
-import com.model.Player;
+import com.model.PlayerProfile;
 import com.repository.PlayerRepository;
 import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
@@ -27,12 +27,12 @@ public class UserResource {
     @GET
     @Path("/{userId}/avatar")
     public Response getAvatar(@PathParam("userId") String userId) {
-        Player player = playerRepository.findById(userId);
-        if (player == null || player.getAvatarUrl() == null) {
+        PlayerProfile profile = playerRepository.findProfile(userId);
+        if (profile == null || profile.avatarUrl() == null) {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
-        String avatarData = player.getAvatarUrl();
+        String avatarData = profile.avatarUrl();
 
         if (avatarData.startsWith("data:")) {
             try {
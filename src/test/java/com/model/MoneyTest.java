@@ -0,0 +1,36 @@
+package com.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MoneyTest {
+
+    @Test
+    void convertsDecimalAmountsToCents() {
+        assertEquals(1230, Money.toCents(12.3));
+        assertEquals(30, Money.toCents(0.1 + 0.2));
+        assertEquals(-500, Money.toCents(-5));
+        assertEquals(12.3, Money.toDouble(1230));
+    }
+
+    @Test
+    void formatsWithTwoDecimals() {
+        assertEquals("0.00", Money.format(0));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("12.30", Money.format(1230));
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("-12.30", Money.format(-1230));
+        assertEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+    }
+
+    @Test
+    void multipliesRoundingHalfUpToTheCent() {
+        assertEquals(2560, Money.multiply(1000, 256));
+        assertEquals(100, Money.multiply(100, 100));
+        assertEquals(500, Money.multiply(333, 150));
+        assertEquals(1, Money.multiply(1, 149));
+        assertEquals(2, Money.multiply(1, 150));
+        assertEquals(0, Money.multiply(1, 49));
+    }
+}
@@ -0,0 +1,73 @@
+package com.service;
+
+import com.model.Bet;
+import com.model.BetState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AutoCashoutIndexTest {
+
+    private final List<String> drained = new ArrayList<>();
+
+    private static Bet bet(String userId, double autoCashout) {
+        Bet bet = new Bet(userId, userId, "r1", 1000, 0, null);
+        bet.setAutoCashout(autoCashout);
+        return bet;
+    }
+
+    private void collect(Bet bet, int target) {
+        drained.add(bet.getUserId() + "@" + target);
+    }
+
+    @Test
+    void indexesOnlyOpenBetsWithTarget() {
+        Bet lost = bet("lost", 2.0);
+        lost.transition(BetState.OPEN, BetState.LOST);
+
+        AutoCashoutIndex index = AutoCashoutIndex.freeze(List.of(bet("manual", 0), bet("one", 1.0), lost));
+
+        assertSame(AutoCashoutIndex.EMPTY, index);
+        assertEquals(0, index.distinctTargets().length);
+    }
+
+    @Test
+    void drainsInTargetOrderAndOnlyOnce() {
+        AutoCashoutIndex index = AutoCashoutIndex.freeze(List.of(
+                bet("c", 3.0), bet("a", 1.5), bet("b", 2.555), bet("b2", 2.555)));
+
+        assertArrayEquals(new int[]{150, 256, 300}, index.distinctTargets());
+
+        index.drain(149, this::collect);
+        assertTrue(drained.isEmpty());
+
+        index.drain(256, this::collect);
+        assertEquals("a@150", drained.get(0));
+        assertEquals(3, drained.size());
+        assertTrue(drained.containsAll(List.of("b@256", "b2@256")));
+
+        index.drain(256, this::collect);
+        assertEquals(3, drained.size());
+
+        index.drain(10_000, this::collect);
+        assertEquals("c@300", drained.get(3));
+    }
+
+    @Test
+    void skipsBetsSettledAfterFreeze() {
+        Bet cashed = bet("cashed", 2.0);
+        Bet open = bet("open", 2.0);
+        AutoCashoutIndex index = AutoCashoutIndex.freeze(List.of(cashed, open));
+
+        cashed.transition(BetState.OPEN, BetState.CASHED);
+        index.drain(200, this::collect);
+
+        assertEquals(List.of("open@200"), drained);
+    }
+}
@@ -0,0 +1,156 @@
+package com.service;
+
+import com.model.Bet;
+import com.model.BetState;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BetRegistryTest {
+
+    private final BetRegistry registry = new BetRegistry();
+
+    private static Bet bet(String userId, String roundId) {
+        Bet bet = new Bet(userId, userId, roundId, 1000, 0, null);
+        bet.setAutoCashout(2.0);
+        return bet;
+    }
+
+    @Test
+    void placementIsExclusivePerBet() {
+        assertTrue(registry.beginPlacement("r1", "u1", 0));
+        assertFalse(registry.beginPlacement("r1", "u1", 0));
+        assertTrue(registry.beginPlacement("r1", "u1", 1));
+        assertTrue(registry.isPlacing("r1", "u1", 0));
+
+        registry.endPlacement("r1", "u1", 0);
+        assertFalse(registry.isPlacing("r1", "u1", 0));
+        assertTrue(registry.beginPlacement("r1", "u1", 0));
+    }
+
+    @Test
+    void placementFailsOnceBetIsRegistered() {
+        registry.open("r1");
+        registry.add(bet("u1", "r1"));
+
+        assertFalse(registry.beginPlacement("r1", "u1", 0));
+    }
+
+    @Test
+    void acceptsBetsOnlyWhileRoundIsOpen() {
+        registry.open("r1");
+        Bet accepted = bet("u1", "r1");
+        registry.add(accepted);
+        assertSame(accepted, registry.get("u1", 0));
+
+        IllegalStateException duplicate = assertThrows(IllegalStateException.class, () -> registry.add(bet("u1", "r1")));
+        assertEquals("Scommessa già presente.", duplicate.getMessage());
+
+        registry.close();
+        Bet late = bet("u2", "r1");
+        IllegalStateException closed = assertThrows(IllegalStateException.class, () -> registry.add(late));
+        assertEquals("ROUND_STARTED", closed.getMessage());
+        assertEquals(BetState.LOST, late.getState());
+        assertNull(registry.get("u2", 0));
+    }
+
+    @Test
+    void rejectsBetsForAnotherRound() {
+        registry.open("r2");
+
+        assertThrows(IllegalStateException.class, () -> registry.add(bet("u1", "r1")));
+        assertFalse(registry.contains("u1", 0));
+    }
+
+    /**
+     * Scommesse concorrenti al decollo: ognuna è o nell'indice congelato degli auto-cashout
+     * o rifiutata con ROUND_STARTED, mai entrambe e mai nessuna delle due.
+     */
+    @Test
+    void betRacingTakeoffIsEitherFrozenOrRejected() throws InterruptedException {
+        int rounds = 200;
+        int threads = 4;
+        int betsPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                BetRegistry registry = new BetRegistry();
+                String roundId = "r" + round;
+                registry.open(roundId);
+                Set<String> accepted = ConcurrentHashMap.newKeySet();
+                Set<String> rejected = ConcurrentHashMap.newKeySet();
+                CountDownLatch start = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(threads);
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    executor.execute(() -> {
+                        try {
+                            start.await();
+                            for (int i = 0; i < betsPerThread; i++) {
+                                String userId = "u" + thread + "-" + i;
+                                Bet bet = bet(userId, roundId);
+                                try {
+                                    registry.add(bet);
+                                    accepted.add(userId);
+                                } catch (IllegalStateException e) {
+                                    // Una scommessa ritirata resta persa: conta solo così, altrimenti il totale non torna
+                                    if (bet.getState() == BetState.LOST) {
+                                        rejected.add(userId);
+                                    }
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                start.countDown();
+                registry.close();
+                registry.freezeAutoCashouts();
+                assertTrue(done.await(10, TimeUnit.SECONDS));
+
+                Set<String> frozen = ConcurrentHashMap.newKeySet();
+                registry.drainAutoCashouts(200, (bet, target) -> frozen.add(bet.getUserId()));
+
+                assertEquals(threads * betsPerThread, accepted.size() + rejected.size());
+                assertEquals(accepted, frozen, "round " + round);
+                for (String userId : rejected) {
+                    assertFalse(registry.contains(userId, 0));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void markOpenBetsLostLeavesCashedBets() {
+        registry.open("r1");
+        Bet cashed = bet("u1", "r1");
+        Bet open = bet("u2", "r1");
+        registry.add(cashed);
+        registry.add(open);
+        cashed.transition(BetState.OPEN, BetState.CASHED);
+
+        registry.markOpenBetsLost();
+
+        assertEquals(BetState.CASHED, cashed.getState());
+        assertEquals(BetState.LOST, open.getState());
+        assertEquals(2, registry.reset().size());
+        assertTrue(registry.getBets().isEmpty());
+    }
+}
@@ -0,0 +1,65 @@
+package com.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BroadcastSequencerTest {
+
+    private final BroadcastSequencer sequencer = new BroadcastSequencer();
+
+    @Test
+    void numbersEventsPerRoom() {
+        assertEquals(1, sequencer.next("main", 1));
+        assertEquals(2, sequencer.next("main", 1));
+        assertEquals(1, sequencer.next("high", 1));
+        assertEquals(3, sequencer.next("main", 1));
+    }
+
+    @Test
+    void eventsWithoutEpochAreNotSequenced() {
+        assertEquals(0, sequencer.next("main", 0));
+        assertEquals(1, sequencer.next("main", 3));
+        assertEquals(0, sequencer.next("main", 0));
+        assertEquals(2, sequencer.next("main", 3));
+    }
+
+    @Test
+    void newEpochRestartsAndStaleEpochIsIgnored() {
+        sequencer.next("main", 4);
+        sequencer.next("main", 4);
+
+        assertEquals(1, sequencer.next("main", 5));
+        // Un ex leader che pubblica ancora non deve sporcare la sequenza della nuova epoca
+        assertEquals(0, sequencer.next("main", 4));
+        assertEquals(2, sequencer.next("main", 5));
+    }
+
+    @Test
+    void concurrentPublishersGetDistinctSequences() throws InterruptedException {
+        int threads = 8;
+        int perThread = 5_000;
+        Set<Long> sequences = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    sequences.add(sequencer.next("main", 7));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * perThread, sequences.size());
+        assertTrue(sequences.contains(1L));
+        assertTrue(sequences.contains((long) threads * perThread));
+    }
+}
@@ -0,0 +1,46 @@
+package com.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InMemoryBroadcastBusTest {
+
+    private record Event(String roomId, long epoch, long sequence, String message) {
+    }
+
+    @Test
+    void deliversEveryEventToAllSubscribersInOrder() {
+        InMemoryBroadcastBus bus = new InMemoryBroadcastBus();
+        List<Event> first = new ArrayList<>();
+        List<Event> second = new ArrayList<>();
+        bus.subscribe((room, epoch, sequence, message) -> first.add(new Event(room, epoch, sequence, message)));
+        bus.subscribe((room, epoch, sequence, message) -> second.add(new Event(room, epoch, sequence, message)));
+
+        bus.publish("main", 2, "TICK:1.0");
+        bus.publish("main", 2, "TICK:1.01");
+        bus.publish("high", 2, "TICK:1.0");
+
+        List<Event> expected = List.of(
+                new Event("main", 2, 1, "TICK:1.0"),
+                new Event("main", 2, 2, "TICK:1.01"),
+                new Event("high", 2, 1, "TICK:1.0"));
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+    }
+
+    @Test
+    void followerEventsCarryNoSequence() {
+        InMemoryBroadcastBus bus = new InMemoryBroadcastBus();
+        List<Long> sequences = new ArrayList<>();
+        bus.subscribe((room, epoch, sequence, message) -> sequences.add(sequence));
+
+        bus.publish("main", 0, "BET:u1:10");
+        bus.publish("main", 1, "TICK:1.0");
+
+        assertEquals(List.of(0L, 1L), sequences);
+    }
+}
@@ -0,0 +1,61 @@
+package com.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiplierCurveTest {
+
+    @Test
+    void clampsToCurveBounds() {
+        assertEquals(MultiplierCurve.MIN_HUNDREDTHS, MultiplierCurve.hundredthsAt(-5));
+        assertEquals(MultiplierCurve.MIN_HUNDREDTHS, MultiplierCurve.hundredthsAt(0));
+        assertEquals(MultiplierCurve.MAX_HUNDREDTHS, MultiplierCurve.hundredthsAt(Long.MAX_VALUE));
+    }
+
+    @Test
+    void followsExponentialCurveTruncatedToHundredths() {
+        for (long t = 0; t <= 150_000; t += 997) {
+            double exact = 100 * Math.exp(MultiplierCurve.GROWTH_RATE * t);
+            int hundredths = MultiplierCurve.hundredthsAt(t);
+            assertTrue(hundredths <= exact + 1e-6 && hundredths > exact - 1, "t=" + t + ": " + hundredths);
+        }
+    }
+
+    @Test
+    void isMonotonic() {
+        int previous = MultiplierCurve.hundredthsAt(0);
+        for (long t = 1; t <= 300_000; t++) {
+            int current = MultiplierCurve.hundredthsAt(t);
+            assertTrue(current >= previous, "t=" + t);
+            previous = current;
+        }
+    }
+
+    @Test
+    void elapsedMillisForIsFirstMillisecondReachingTarget() {
+        assertEquals(0, MultiplierCurve.elapsedMillisFor(100));
+        for (int hundredths : new int[]{101, 150, 200, 256, 1_000, 10_000, 123_456}) {
+            long t = MultiplierCurve.elapsedMillisFor(hundredths);
+            assertTrue(MultiplierCurve.hundredthsAt(t) >= hundredths, "target " + hundredths);
+            assertTrue(MultiplierCurve.hundredthsAt(t - 1) < hundredths, "target " + hundredths);
+        }
+    }
+
+    @Test
+    void cachesTickFramesUpToLimit() {
+        assertEquals("TICK:2.0", MultiplierCurve.tickFrame(200));
+        assertSame(MultiplierCurve.tickFrame(256), MultiplierCurve.tickFrame(256));
+        assertEquals("TICK:123.45", MultiplierCurve.tickFrame(12_345));
+    }
+
+    @Test
+    void roundsAutoCashoutTargetsUp() {
+        assertEquals(200, MultiplierCurve.targetToHundredths(2.0));
+        assertEquals(256, MultiplierCurve.targetToHundredths(2.555));
+        assertEquals(101, MultiplierCurve.targetToHundredths(1.01));
+        assertEquals(567, MultiplierCurve.toHundredths(5.67));
+    }
+}
@@ -0,0 +1,108 @@
+package com.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+
+    private static final long MS = 1_000_000L;
+
+    private final TimerWheel wheel = new TimerWheel(0, 10, 8);
+    private final List<String> fired = new ArrayList<>();
+
+    @Test
+    void rejectsWheelSizeThatIsNotPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TimerWheel(0, 10, 6));
+    }
+
+    @Test
+    void firesOnlyOnceDeadlineSlotIsReached() {
+        wheel.schedule(25 * MS, () -> fired.add("a"));
+
+        wheel.advance(29 * MS);
+        assertTrue(fired.isEmpty());
+
+        wheel.advance(30 * MS);
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.getPending());
+
+        wheel.advance(100 * MS);
+        assertEquals(List.of("a"), fired);
+    }
+
+    @Test
+    void deadlineBeyondOneRotationDoesNotFireEarly() {
+        wheel.schedule(200 * MS, () -> fired.add("late"));
+
+        wheel.advance(120 * MS);
+        wheel.advance(190 * MS);
+        assertTrue(fired.isEmpty());
+
+        wheel.advance(200 * MS);
+        assertEquals(List.of("late"), fired);
+    }
+
+    @Test
+    void pastDeadlineFiresAtNextSlot() {
+        wheel.advance(50 * MS);
+        wheel.schedule(10 * MS, () -> fired.add("past"));
+
+        wheel.advance(55 * MS);
+        assertTrue(fired.isEmpty());
+        wheel.advance(60 * MS);
+        assertEquals(List.of("past"), fired);
+    }
+
+    @Test
+    void cancelledTimerNeverRuns() {
+        TimerWheel.Timeout timeout = wheel.schedule(20 * MS, () -> fired.add("cancelled"));
+        wheel.schedule(20 * MS, () -> fired.add("kept"));
+        timeout.cancel();
+
+        wheel.advance(40 * MS);
+        assertEquals(List.of("kept"), fired);
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, wheel.getPending());
+    }
+
+    @Test
+    void failingTaskDoesNotStopOthers() {
+        wheel.schedule(20 * MS, () -> {
+            throw new IllegalStateException("boom");
+        });
+        wheel.schedule(20 * MS, () -> fired.add("after"));
+
+        wheel.advance(20 * MS);
+        assertEquals(List.of("after"), fired);
+    }
+
+    @Test
+    void nextExpiryPointsAtFirstDueSlot() {
+        assertEquals(Long.MAX_VALUE, wheel.nextExpiryNanos());
+
+        wheel.schedule(25 * MS, () -> fired.add("a"));
+        assertEquals(30 * MS, wheel.nextExpiryNanos());
+
+        wheel.schedule(500 * MS, () -> fired.add("b"));
+        wheel.advance(30 * MS);
+        // Nessun timer entro un giro: si ricontrolla alla fine del giro
+        assertEquals(120 * MS, wheel.nextExpiryNanos());
+    }
+
+    @Test
+    void clearCancelsEverything() {
+        TimerWheel.Timeout timeout = wheel.schedule(20 * MS, () -> fired.add("a"));
+        wheel.clear();
+
+        wheel.advance(100 * MS);
+        assertTrue(fired.isEmpty());
+        assertTrue(timeout.isCancelled());
+        assertEquals(Long.MAX_VALUE, wheel.nextExpiryNanos());
+    }
+}
@@ -0,0 +1,150 @@
+package com.service;
+
+import com.dto.WalletResult;
+import com.repository.PlayerBalances;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.mutiny.redis.client.Redis;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.impl.types.NumberType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WalWalletServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final AtomicInteger batches = new AtomicInteger();
+    private WalWalletService wallet;
+
+    /**
+     * Redis finto: concede sempre il lock del wallet (EVAL → 1), accetta ogni pipeline e risponde null
+     * al resto. I conti dei test vengono tutti dal log, quindi il wallet non legge saldi da Redis.
+     */
+    private Redis fakeRedis() {
+        io.vertx.redis.client.Redis delegate = (io.vertx.redis.client.Redis) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{io.vertx.redis.client.Redis.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "send" -> Future.succeededFuture(
+                            Command.EVAL.equals(((Request) args[0]).command()) ? NumberType.create(1L) : null);
+                    case "batch" -> {
+                        batches.incrementAndGet();
+                        yield Future.succeededFuture(List.of());
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "fake-redis";
+                    default -> null;
+                });
+        return Redis.newInstance(delegate);
+    }
+
+    private WalWalletService start(Path logPath) {
+        Redis redis = fakeRedis();
+        wallet = new WalWalletService(redis, new PlayerBalances(redis), new WalletJournal(redis, "test:journal", 1000),
+                new SimpleMeterRegistry(), logPath.toString(), 0, false);
+        wallet.init();
+        return wallet;
+    }
+
+    @AfterEach
+    void stop() {
+        if (wallet != null) {
+            wallet.close();
+        }
+    }
+
+    private static WalletLog.Entry mutation(String transactionId, long balanceCents) {
+        return new WalletLog.Entry(WalletLog.MUTATION, System.currentTimeMillis(), "u1", transactionId,
+                balanceCents, "r1", WalletJournal.BET, 100);
+    }
+
+    private Path writeLog(WalletLog.Entry... entries) throws IOException {
+        Path path = dir.resolve("wallet.wal");
+        WalletLog log = new WalletLog(path);
+        log.rewrite(List.of());
+        for (WalletLog.Entry entry : entries) {
+            log.append(entry);
+        }
+        log.sync();
+        log.close();
+        return path;
+    }
+
+    private static List<WalletLog.Entry> replay(Path path) throws IOException {
+        List<WalletLog.Entry> entries = new ArrayList<>();
+        new WalletLog(path).replay(entries::add);
+        return entries;
+    }
+
+    @Test
+    void replayedTransactionsStayIdempotent() throws IOException {
+        // Lo stesso record due volte (compattazione che precede un record già applicato) non cambia il saldo
+        Path path = writeLog(mutation("t1", 900), mutation("t1", 900), mutation("t2", 800));
+        start(path);
+
+        WalletResult replayed = wallet.reserveFunds("u1", 100, "r1", "t2").await().indefinitely();
+        assertTrue(replayed.success());
+        assertTrue(replayed.alreadyProcessed());
+        assertEquals(800, replayed.newBalanceCents());
+
+        WalletResult fresh = wallet.reserveFunds("u1", 100, "r1", "t3").await().indefinitely();
+        assertFalse(fresh.alreadyProcessed());
+        assertEquals(700, fresh.newBalanceCents());
+        assertEquals(700L, wallet.getBalanceCents("u1").await().indefinitely());
+    }
+
+    @Test
+    void tornTailIsNotReplayed() throws IOException {
+        Path path = writeLog(mutation("t1", 900), mutation("t2", 800));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        start(path);
+
+        // t2 non è mai stato confermato al chiamante: il retry lo applica ora
+        WalletResult retried = wallet.reserveFunds("u1", 100, "r1", "t2").await().indefinitely();
+        assertFalse(retried.alreadyProcessed());
+        assertEquals(800, retried.newBalanceCents());
+    }
+
+    @Test
+    void cleanShutdownKeepsOnlyTransactions() throws IOException {
+        Path path = writeLog(mutation("t1", 900));
+        start(path);
+        wallet.reserveFunds("u1", 100, "r1", "t2").await().indefinitely();
+
+        wallet.close();
+
+        assertTrue(batches.get() > 0);
+        List<WalletLog.Entry> entries = replay(path);
+        assertTrue(entries.stream().allMatch(entry -> entry.type() == WalletLog.TRANSACTION));
+        assertEquals(List.of("t1", "t2"), entries.stream().map(WalletLog.Entry::transactionId).sorted().toList());
+    }
+
+    @Test
+    void rejectsMutationsAfterClose() throws IOException {
+        start(writeLog(mutation("t1", 900)));
+        wallet.close();
+
+        assertThrows(IllegalStateException.class,
+                () -> wallet.reserveFunds("u1", 100, "r1", "t2").await().indefinitely());
+    }
+}
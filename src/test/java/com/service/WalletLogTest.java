@@ -0,0 +1,135 @@
+package com.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WalletLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static WalletLog.Entry mutation(String userId, String transactionId, long balanceCents) {
+        return new WalletLog.Entry(WalletLog.MUTATION, 1_000L, userId, transactionId, balanceCents,
+                "r1", WalletJournal.BET, 100);
+    }
+
+    private Path writeLog(WalletLog.Entry... entries) throws IOException {
+        Path path = dir.resolve("wallet.wal");
+        WalletLog log = new WalletLog(path);
+        log.rewrite(List.of());
+        for (WalletLog.Entry entry : entries) {
+            log.append(entry);
+        }
+        log.sync();
+        log.close();
+        return path;
+    }
+
+    private static List<WalletLog.Entry> replay(Path path) throws IOException {
+        List<WalletLog.Entry> entries = new ArrayList<>();
+        new WalletLog(path).replay(entries::add);
+        return entries;
+    }
+
+    @Test
+    void missingLogReplaysNothing() throws IOException {
+        assertEquals(0, new WalletLog(dir.resolve("absent.wal")).replay(entry -> {
+        }));
+    }
+
+    @Test
+    void replaysRecordsInWriteOrder() throws IOException {
+        List<WalletLog.Entry> written = List.of(mutation("u1", "t1", 900), mutation("u2", "t2", 400),
+                new WalletLog.Entry(WalletLog.TRANSACTION, 2_000L, "u1", "t0", 0, "", "", 0));
+
+        Path path = writeLog(written.toArray(WalletLog.Entry[]::new));
+
+        assertEquals(written, replay(path));
+    }
+
+    @Test
+    void dropsTornTail() throws IOException {
+        Path path = writeLog(mutation("u1", "t1", 900), mutation("u1", "t2", 800), mutation("u1", "t3", 700));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        List<WalletLog.Entry> entries = replay(path);
+
+        assertEquals(2, entries.size());
+        assertEquals(800, entries.get(1).balanceCents());
+    }
+
+    @Test
+    void stopsAtFirstCorruptedRecord() throws IOException {
+        Path path = writeLog(mutation("u1", "t1", 900), mutation("u1", "t2", 800), mutation("u1", "t3", 700));
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length - 1] ^= 0x5A;
+        Files.write(path, bytes);
+
+        assertEquals(List.of(mutation("u1", "t1", 900), mutation("u1", "t2", 800)), replay(path));
+    }
+
+    @Test
+    void stopsAtInvalidLength() throws IOException {
+        Path path = writeLog(mutation("u1", "t1", 900));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(8).putInt(0).putInt(0).flip());
+        }
+
+        assertEquals(1, replay(path).size());
+    }
+
+    @Test
+    void readsRecordsWrittenBeforeJournalFields() throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(WalletLog.MUTATION);
+        out.writeLong(1_000L);
+        out.writeUTF("u1");
+        out.writeUTF("t1");
+        out.writeLong(900);
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.size())
+                .putInt(payload.size()).putInt((int) crc.getValue()).put(payload.toByteArray()).flip();
+        Path path = dir.resolve("legacy.wal");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(record);
+        }
+
+        assertEquals(List.of(new WalletLog.Entry(WalletLog.MUTATION, 1_000L, "u1", "t1", 900, "", "", 0)),
+                replay(path));
+    }
+
+    @Test
+    void rewriteReplacesContentAndKeepsAppending() throws IOException {
+        Path path = dir.resolve("wallet.wal");
+        WalletLog log = new WalletLog(path);
+        log.rewrite(List.of());
+        log.append(mutation("u1", "t1", 900));
+        log.append(mutation("u1", "t2", 800));
+        log.sync();
+
+        log.rewrite(List.of(mutation("u1", "", 800)));
+        log.append(mutation("u1", "t3", 700));
+        log.sync();
+        log.close();
+
+        assertEquals(List.of(mutation("u1", "", 800), mutation("u1", "t3", 700)), replay(path));
+    }
+}